@@ -18,7 +18,7 @@ LOCAL_PATH := $(call my-dir)
 
 include $(CLEAR_VARS)
 LOCAL_STATIC_JAVA_LIBRARIES = android-support-v4
-LOCAL_SRC_FILES := $(call all-subdir-java-files)
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
 LOCAL_PACKAGE_NAME := OmniSwitch
 LOCAL_CERTIFICATE := platform
 LOCAL_PRIVILEGED_MODULE := true
@@ -27,3 +27,5 @@ LOCAL_MIN_SDK_VERSION := 25
 LOCAL_PRIVATE_PLATFORM_APIS := true
 #LOCAL_DEX_PREOPT := false
 include $(BUILD_PACKAGE)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
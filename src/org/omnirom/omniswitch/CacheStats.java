@@ -0,0 +1,102 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit, miss, eviction and load time counters of one cache.
+ * Can be updated from any thread.
+ */
+public class CacheStats {
+    private final String mName;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final AtomicLong mLoads = new AtomicLong();
+    private final AtomicLong mLoadTime = new AtomicLong();
+
+    public CacheStats(String name) {
+        mName = name;
+    }
+
+    public void hit() {
+        mHits.incrementAndGet();
+    }
+
+    public void miss() {
+        mMisses.incrementAndGet();
+    }
+
+    public void evicted() {
+        mEvictions.incrementAndGet();
+    }
+
+    /**
+     * a load started at startTime - a value of now() - finished
+     */
+    public void loaded(long startTime) {
+        mLoads.incrementAndGet();
+        mLoadTime.addAndGet(now() - startTime);
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    public void clear() {
+        mHits.set(0);
+        mMisses.set(0);
+        mEvictions.set(0);
+        mLoads.set(0);
+        mLoadTime.set(0);
+    }
+
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @param bytes held by the cache - -1 if not known
+     */
+    public void dump(PrintWriter pw, String prefix, long bytes) {
+        final long hits = mHits.get();
+        final long misses = mMisses.get();
+        final long loads = mLoads.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append(prefix).append(mName).append(": hits=").append(hits)
+                .append(" misses=").append(misses);
+        if (hits + misses != 0) {
+            sb.append(" (").append(hits * 100 / (hits + misses)).append("%)");
+        }
+        sb.append(" evictions=").append(mEvictions.get())
+                .append(" loads=").append(loads);
+        if (loads != 0) {
+            sb.append(" avgLoad=").append(String.format("%.2fms", mLoadTime.get() / loads / 1000000f));
+        }
+        if (bytes >= 0) {
+            sb.append(" bytes=").append(bytes);
+        }
+        pw.println(sb.toString());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Trace sections and in-process latency statistics of opening the
+ * overlay. Spans measure a single step on one thread. Milestones
+ * measure the time since the open was started by the receiver.
+ * The last SAMPLE_COUNT values of each are kept for percentiles.
+ */
+public class LatencyTracker {
+    private static final String TAG = "OmniSwitch:LatencyTracker";
+    private static final String OPEN_TRACE_NAME = "OmniSwitch:open";
+    private static final int SAMPLE_COUNT = 256;
+
+    public static final int SPAN_RECEIVE = 0;
+    public static final int SPAN_SHOW = 1;
+    public static final int SPAN_PRE_SHOW = 2;
+    public static final int SPAN_ADD_VIEW = 3;
+    public static final int SPAN_PUBLISH = 4;
+    public static final int SPAN_UPDATE_LIST = 5;
+    public static final int MILESTONE_PUBLISHED = 6;
+    public static final int MILESTONE_LIST_UPDATED = 7;
+    public static final int MILESTONE_FIRST_DRAW = 8;
+
+    private static final String[] NAMES = {
+        "receive",
+        "show",
+        "preShow",
+        "addView",
+        "publish",
+        "updateRecentsAppsList",
+        "open->published",
+        "open->listUpdated",
+        "open->firstDraw",
+    };
+
+    private static final String[] sTraceNames = new String[NAMES.length];
+    private static final Histogram[] sHistograms = new Histogram[NAMES.length];
+    private static final long[] sSpanStart = new long[NAMES.length];
+    // nanoTime of the current open - 0 if none
+    private static long sOpenStart;
+    private static int sOpenCookie;
+    private static final boolean[] sOpenMilestoneDone = new boolean[NAMES.length];
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            sHistograms[i] = new Histogram();
+            sTraceNames[i] = "OmniSwitch:" + NAMES[i];
+        }
+    }
+
+    private static class Histogram {
+        private final long[] mSamples = new long[SAMPLE_COUNT];
+        private int mNext;
+        private int mCount;
+        private long mTotal;
+
+        void add(long value) {
+            mSamples[mNext] = value;
+            mNext = (mNext + 1) % SAMPLE_COUNT;
+            mCount++;
+            mTotal += value;
+        }
+
+        void clear() {
+            mNext = 0;
+            mCount = 0;
+            mTotal = 0;
+        }
+
+        void print(PrintWriter pw, String name) {
+            if (mCount == 0) {
+                pw.println(name + ": -");
+                return;
+            }
+            final int size = Math.min(mCount, SAMPLE_COUNT);
+            long[] sorted = Arrays.copyOf(mSamples, size);
+            Arrays.sort(sorted);
+            pw.println(name + ": n=" + mCount
+                    + " p50=" + formatMs(percentile(sorted, 50))
+                    + " p95=" + formatMs(percentile(sorted, 95))
+                    + " p99=" + formatMs(percentile(sorted, 99))
+                    + " max=" + formatMs(sorted[size - 1])
+                    + " avg=" + formatMs(mTotal / mCount));
+        }
+
+        private static long percentile(long[] sorted, int p) {
+            int index = (int) Math.ceil(p / 100f * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+
+    /**
+     * the overlay open was requested - starts the milestones
+     */
+    public static synchronized void startOpen() {
+        if (sOpenStart != 0) {
+            // the last open never got drawn
+            Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, OPEN_TRACE_NAME, sOpenCookie);
+        }
+        sOpenStart = System.nanoTime();
+        sOpenCookie++;
+        Arrays.fill(sOpenMilestoneDone, false);
+        Trace.asyncTraceBegin(Trace.TRACE_TAG_APP, OPEN_TRACE_NAME, sOpenCookie);
+    }
+
+    /**
+     * only the first of each milestone per open is recorded -
+     * the first draw ends the open
+     */
+    public static synchronized void markOpen(int milestone) {
+        if (sOpenStart == 0 || sOpenMilestoneDone[milestone]) {
+            return;
+        }
+        sOpenMilestoneDone[milestone] = true;
+        sHistograms[milestone].add(System.nanoTime() - sOpenStart);
+        if (milestone == MILESTONE_FIRST_DRAW) {
+            Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, OPEN_TRACE_NAME, sOpenCookie);
+            sOpenStart = 0;
+        }
+    }
+
+    /**
+     * spans must be ended on the same thread and
+     * in reverse order of their begin
+     */
+    public static void beginSpan(int span) {
+        Trace.beginSection(sTraceNames[span]);
+        synchronized (LatencyTracker.class) {
+            sSpanStart[span] = System.nanoTime();
+        }
+    }
+
+    public static void endSpan(int span) {
+        synchronized (LatencyTracker.class) {
+            if (sSpanStart[span] != 0) {
+                sHistograms[span].add(System.nanoTime() - sSpanStart[span]);
+                sSpanStart[span] = 0;
+            }
+        }
+        Trace.endSection();
+    }
+
+    public static synchronized void clear() {
+        for (Histogram h : sHistograms) {
+            h.clear();
+        }
+    }
+
+    public static synchronized void dump(PrintWriter pw) {
+        pw.println("Overlay open latency (last " + SAMPLE_COUNT + " samples):");
+        for (int i = 0; i < NAMES.length; i++) {
+            sHistograms[i].print(pw, "  " + NAMES[i]);
+        }
+    }
+
+    public static String dumpToString() {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        dump(pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+    public static boolean dumpToFile(File file) {
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(file));
+            dump(pw);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "dumpToFile " + file, e);
+            return false;
+        } finally {
+            if (pw != null) {
+                pw.close();
+            }
+        }
+    }
+
+    private static String formatMs(long nanos) {
+        return String.format("%.1fms", nanos / 1000000f);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * OmniSwitch owned executor for all loading work. Jobs are run
+ * by lane priority - lower lanes first - and FIFO within a lane.
+ * Jobs stamped with a load generation are dropped once a newer
+ * generation has been started.
+ */
+public class LoaderExecutor {
+    private static final String TAG = "OmniSwitch:LoaderExecutor";
+    private static final boolean DEBUG = false;
+
+    // the recent tasks list of the visible window
+    public static final int LANE_TASKS = 0;
+    // thumbnails of visible tasks
+    public static final int LANE_THUMBNAILS = 1;
+    // app icons of visible app drawer and favorite items
+    public static final int LANE_ICONS = 2;
+    // off-screen icon and label fill
+    public static final int LANE_TASK_INFO = 3;
+
+    // jobs that are not bound to a load generation
+    public static final int NO_GENERATION = -1;
+
+    private static final int NUM_THREADS = 2;
+    private static final int MAX_QUEUED_JOBS = 64;
+
+    private static LoaderExecutor sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final PriorityBlockingQueue<Runnable> mQueue;
+    private final AtomicLong mSequence = new AtomicLong();
+    private volatile int mMinGeneration;
+
+    public static abstract class Job implements Runnable, Comparable<Job> {
+        private final int mLane;
+        private final int mGeneration;
+        private long mSequence;
+        private volatile boolean mCancelled;
+
+        public Job(int lane, int generation) {
+            mLane = lane;
+            mGeneration = generation;
+        }
+
+        public int getLane() {
+            return mLane;
+        }
+
+        public int getGeneration() {
+            return mGeneration;
+        }
+
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            if (mCancelled) {
+                return true;
+            }
+            return mGeneration != NO_GENERATION
+                    && mGeneration < getInstance().mMinGeneration;
+        }
+
+        protected abstract void doInBackground();
+
+        // called instead of doInBackground if the job was dropped
+        protected void onCancelled() {
+        }
+
+        @Override
+        public final void run() {
+            if (isCancelled()) {
+                if (DEBUG) {
+                    Log.d(TAG, "skip cancelled job lane=" + mLane + " generation=" + mGeneration);
+                }
+                onCancelled();
+                return;
+            }
+            final int origPri = Process.getThreadPriority(Process.myTid());
+            Process.setThreadPriority(mLane == LANE_TASK_INFO
+                    ? Process.THREAD_PRIORITY_BACKGROUND
+                    : Process.THREAD_PRIORITY_FOREGROUND);
+            try {
+                doInBackground();
+            } finally {
+                Process.setThreadPriority(origPri);
+            }
+        }
+
+        @Override
+        public int compareTo(Job another) {
+            if (mLane != another.mLane) {
+                return mLane < another.mLane ? -1 : 1;
+            }
+            return Long.compare(mSequence, another.mSequence);
+        }
+    }
+
+    public static synchronized LoaderExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new LoaderExecutor();
+        }
+        return sInstance;
+    }
+
+    private LoaderExecutor() {
+        mQueue = new PriorityBlockingQueue<Runnable>(MAX_QUEUED_JOBS);
+        mExecutor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS,
+                30, TimeUnit.SECONDS, mQueue, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "OmniSwitchLoader #" + mCount.incrementAndGet());
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void execute(Job job) {
+        job.mSequence = mSequence.getAndIncrement();
+        synchronized (mQueue) {
+            if (mQueue.size() >= MAX_QUEUED_JOBS) {
+                Job last = getLowestPriorityJob();
+                if (last != null && last.compareTo(job) > 0) {
+                    if (DEBUG) {
+                        Log.d(TAG, "queue full - drop lane=" + last.getLane());
+                    }
+                    last.cancel();
+                    mQueue.remove(last);
+                    last.onCancelled();
+                } else {
+                    if (DEBUG) {
+                        Log.d(TAG, "queue full - reject lane=" + job.getLane());
+                    }
+                    job.cancel();
+                    job.onCancelled();
+                    return;
+                }
+            }
+        }
+        mExecutor.execute(job);
+    }
+
+    /**
+     * drop all queued and running jobs of a generation
+     * older then the given one
+     */
+    public void startGeneration(int generation) {
+        mMinGeneration = generation;
+        synchronized (mQueue) {
+            Iterator<Runnable> nextJob = mQueue.iterator();
+            while (nextJob.hasNext()) {
+                Job job = (Job) nextJob.next();
+                if (job.isCancelled()) {
+                    mQueue.remove(job);
+                    job.onCancelled();
+                }
+            }
+        }
+    }
+
+    private Job getLowestPriorityJob() {
+        Job last = null;
+        Iterator<Runnable> nextJob = mQueue.iterator();
+        while (nextJob.hasNext()) {
+            Job job = (Job) nextJob.next();
+            if (last == null || job.compareTo(last) > 0) {
+                last = job;
+            }
+        }
+        return last;
+    }
+}
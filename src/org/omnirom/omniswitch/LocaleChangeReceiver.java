@@ -35,6 +35,8 @@ public class LocaleChangeReceiver extends BroadcastReceiver {
         if (DEBUG) Log.d("LocaleChangeReceiver", "onReceive " + intent.getAction());
         if (SwitchService.isRunning()){
             PackageManager.getInstance(context).updatePackageList();
+            RecentTasksLoader.getInstance(context).clearResolveCache();
+            RecentTasksLoader.getInstance(context).clearTaskCache();
 
             // to force a reload of all adapters that show packages
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -134,13 +134,14 @@ public class PackageManager {
         final android.content.pm.PackageManager pm = mContext.getPackageManager();
 
         Drawable icon = null;
-        if (IconPackHelper.getInstance(mContext).isIconPackLoaded()){
-            int iconId = IconPackHelper.getInstance(mContext).getResourceIdForActivityIcon(item.activity);
+        final IconPackHelper.IconPack iconPack = IconPackHelper.getInstance(mContext).getIconPack();
+        if (iconPack != null){
+            int iconId = iconPack.getResourceIdForActivityIcon(item.activity);
             if (iconId != 0) {
-                icon = IconPackHelper.getInstance(mContext).getIconPackResources().getDrawable(iconId);
+                icon = iconPack.getResources().getDrawable(iconId);
             }
         }
-        if (icon == null || !IconPackHelper.getInstance(mContext).isIconPackLoaded()){
+        if (icon == null){
             try {
                 icon = pm.getActivityIcon(item.intent);
             } catch (NameNotFoundException e) {
@@ -208,6 +209,7 @@ public class PackageManager {
 
     public synchronized void updatePackageIcons() {
         BitmapCache.getInstance(mContext).clear();
+        RecentTasksLoader.getInstance(mContext).clearTaskCache();
     }
 
     public synchronized CharSequence getTitle(String intent) {
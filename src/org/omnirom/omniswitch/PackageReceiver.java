@@ -37,6 +37,8 @@ public class PackageReceiver extends BroadcastReceiver {
             if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
                 PackageManager.getInstance(context).removePackageIconCache(packageName);
             }
+            // icon or label of recent tasks might have changed
+            RecentTasksLoader.getInstance(context).removeTaskCache(packageName);
             // TODO
             /*if (packageName.startsWith(context.getPackageName()) || packageName.startsWith("android")) {
                 // overlay package migth be installed - recalc color accent for drag handle
@@ -18,16 +18,20 @@
 package org.omnirom.omniswitch;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.omnirom.omniswitch.ui.BitmapCache;
 import org.omnirom.omniswitch.ui.BitmapUtils;
 import org.omnirom.omniswitch.ui.IconPackHelper;
 
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -38,27 +42,28 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.ParcelFileDescriptor;
-import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 
 public class RecentTasksLoader {
     private static final String TAG = "RecentTasksLoader";
     private static final boolean DEBUG = false;
     private static final int TASK_INIT_LOAD = 8;
+    // thumbnails of cached tasks kept in screen sizes
+    private static final int THUMB_BUDGET_SCREENS = 3;
+    private static final long THUMB_RESTORE_DELAY = 60000;
 
     private Context mContext;
-    private AsyncTask<Void, List<TaskDescription>, Void> mTaskLoader;
-    private AsyncTask<Void, Void, Void> mTaskInfoLoader;
-    private AsyncTask<Void, TaskDescription, Void> mThumbnailLoader;
+    private LoaderExecutor.Job mTaskLoader;
+    private LoaderExecutor.Job mTaskInfoLoader;
+    private int mLoadGeneration;
     private Handler mHandler;
     private List<TaskDescription> mLoadedTasks;
     private List<TaskDescription> mLoadedTasksOriginal;
-    private boolean mPreloaded;
     private SwitchManager mSwitchManager;
     private ActivityManager mActivityManager;
     private Bitmap mDefaultThumbnail;
@@ -68,6 +73,24 @@ public class RecentTasksLoader {
     private PackageManager mPackageManager;
     private Drawable mDefaultAppIcon;
     private Set<String> mLockedAppsList;
+    // tasks of the last load by persistentTaskId - kept across cancelLoadingTasks
+    private final SparseArray<TaskDescription> mTaskCache;
+    private int mTaskCacheEpoch;
+    // bytes of thumbnails kept on the cached tasks
+    private final long mThumbBudget;
+    // percent of mThumbBudget after the last trim - UI thread only
+    private int mThumbBudgetPercent = 100;
+    private long mLastTrimTime;
+    // the current load - UI thread only
+    private LoadSession mSession;
+    // a task moved to front since the last standby load was started
+    private volatile boolean mTopTaskMoved;
+    private ThumbnailLoader mThumbnailLoader;
+    private ResolveInfoCache mResolveInfoCache;
+    // hits are thumbs kept since the task was not active - misses snapshot binder calls
+    private final CacheStats mThumbStats = new CacheStats("task thumbnails");
+    // hits are icon and label kept from a previous load
+    private final CacheStats mTaskInfoStats = new CacheStats("task info");
 
     final static BitmapFactory.Options sBitmapOptions;
 
@@ -77,11 +100,34 @@ public class RecentTasksLoader {
         sBitmapOptions.inPreferredConfig = Bitmap.Config.RGB_565;
     }
 
-    private enum State {
-        LOADING, IDLE
-    };
+    /**
+     * One load of the recent tasks list. Its result is only
+     * published while it is still the current session.
+     */
+    private static final class LoadSession {
+        final int generation;
+        // bytes of thumbs kept by a standby load - 0 for no limit
+        final long thumbBudget;
+        // loaded in standby and not shown yet
+        boolean standby;
+        // null while loading
+        TaskChangeSet changes;
+
+        LoadSession(int generation, boolean standby, long thumbBudget) {
+            this.generation = generation;
+            this.standby = standby;
+            this.thumbBudget = thumbBudget;
+        }
 
-    private State mState = State.IDLE;
+        boolean isLoaded() {
+            return changes != null;
+        }
+
+        @Override
+        public String toString() {
+            return "generation=" + generation + " loaded=" + isLoaded() + " standby=" + standby;
+        }
+    }
 
     private static RecentTasksLoader sInstance;
 
@@ -102,26 +148,21 @@ public class RecentTasksLoader {
         mLoadedTasks = new CopyOnWriteArrayList<TaskDescription>();
         mLoadedTasksOriginal = new CopyOnWriteArrayList<TaskDescription>();
         mLockedAppsList = new HashSet<String>();
+        mTaskCache = new SparseArray<TaskDescription>();
+        mThumbnailLoader = new ThumbnailLoader(this, mHandler);
         mActivityManager = (ActivityManager)
                 mContext.getSystemService(Context.ACTIVITY_SERVICE);
         mPackageManager = mContext.getPackageManager();
+        mResolveInfoCache = new ResolveInfoCache(mPackageManager);
         mDefaultThumbnail = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
         mDefaultThumbnail.setHasAlpha(true);
         mDefaultThumbnail.eraseColor(0x00ffffff);
         mHasThumbPermissions = hasSystemPermission(context);
         mConfiguration = SwitchConfiguration.getInstance(mContext);
         mDefaultAppIcon = BitmapUtils.getDefaultActivityIcon(mContext);
-    }
-
-    private boolean isCurrentHomeActivity(ComponentName component,
-            ActivityInfo homeInfo) {
-        if (homeInfo == null) {
-            homeInfo = new Intent(Intent.ACTION_MAIN).addCategory(
-                    Intent.CATEGORY_HOME).resolveActivityInfo(mPackageManager, 0);
-        }
-        return homeInfo != null
-                && homeInfo.packageName.equals(component.getPackageName())
-                && homeInfo.name.equals(component.getClassName());
+        // a few screen sized thumbnails but not more than 1/16 of the memory
+        mThumbBudget = Math.min(Runtime.getRuntime().maxMemory() / 16, (long) THUMB_BUDGET_SCREENS
+                * mConfiguration.getCurrentDisplayWidth() * mConfiguration.getCurrentDisplayHeight() * 4);
     }
 
     // Create an TaskDescription, returning null if the title or icon is null
@@ -135,21 +176,154 @@ public class RecentTasksLoader {
         }
         intent.setFlags((intent.getFlags() & ~Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED)
                 | Intent.FLAG_ACTIVITY_NEW_TASK);
-        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-        if (resolveInfo != null) {
+        final ResolveInfoCache.Entry resolveEntry = mResolveInfoCache.resolveActivity(intent);
+        if (resolveEntry != null) {
             if (DEBUG)
                 Log.v(TAG, "creating activity desc for id=" + persistentTaskId);
             TaskDescription ad = new TaskDescription(taskId,
-                    persistentTaskId, resolveInfo, baseIntent, stackId,
+                    persistentTaskId, resolveEntry, baseIntent, stackId,
                     supportsSplitScreenMultiWindow);
             return ad;
         }
         return null;
     }
 
+    /**
+     * reuse a task from the last load if it is still the same task.
+     * Its task info is updated on the UI thread once the load is done.
+     */
+    private TaskDescription reuseTaskDescription(SparseArray<TaskDescription> lastTasks,
+            ActivityManager.RecentTaskInfo recentInfo) {
+        TaskDescription td = lastTasks.get(recentInfo.persistentId);
+        if (td == null || td.isKilled()) {
+            return null;
+        }
+        ComponentName lastComponent = td.getIntent().getComponent();
+        if (lastComponent == null || !lastComponent.equals(recentInfo.baseIntent.getComponent())) {
+            return null;
+        }
+        return td;
+    }
+
+    // labels depend on the locale
+    public void clearResolveCache() {
+        mResolveInfoCache.clear();
+    }
+
+    public void clearTaskCache() {
+        synchronized (mTaskCache) {
+            mTaskCache.clear();
+            mTaskCacheEpoch++;
+        }
+    }
+
+    public void removeTaskCache(String packageName) {
+        mResolveInfoCache.removePackage(packageName);
+        synchronized (mTaskCache) {
+            for (int i = mTaskCache.size() - 1; i >= 0; i--) {
+                if (mTaskCache.valueAt(i).getPackageName().equals(packageName)) {
+                    mTaskCache.removeAt(i);
+                }
+            }
+            mTaskCacheEpoch++;
+        }
+    }
+
+    /**
+     * shrink the thumbnail budget of the cached tasks to this
+     * trim level - a lower level than the current one does not
+     * grow it. UI thread only.
+     */
+    public void onTrimMemory(int level) {
+        final int percent;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            percent = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            percent = 25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            percent = 50;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // just our overlay or settings went away
+            return;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            percent = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            percent = 50;
+        } else {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "onTrimMemory " + level);
+        }
+        mLastTrimTime = SystemClock.uptimeMillis();
+        mThumbBudgetPercent = Math.min(mThumbBudgetPercent, percent);
+        trimCachedThumbs();
+    }
+
+    private long getThumbBudget() {
+        // give back the full budget some time after the last trim
+        if (mThumbBudgetPercent != 100
+                && SystemClock.uptimeMillis() - mLastTrimTime >= THUMB_RESTORE_DELAY) {
+            mThumbBudgetPercent = 100;
+        }
+        return mThumbBudget * mThumbBudgetPercent / 100;
+    }
+
+    /**
+     * drop the thumbnails of the least recently active cached tasks
+     * that exceed the budget - shown tasks keep theirs. UI thread only.
+     */
+    void trimCachedThumbs() {
+        final long budget = getThumbBudget();
+        final List<TaskDescription> tasks;
+        synchronized (mTaskCache) {
+            tasks = new ArrayList<TaskDescription>(mTaskCache.size());
+            for (int i = 0; i < mTaskCache.size(); i++) {
+                tasks.add(mTaskCache.valueAt(i));
+            }
+        }
+        Collections.sort(tasks, new Comparator<TaskDescription>() {
+            @Override
+            public int compare(TaskDescription a, TaskDescription b) {
+                return Long.compare(b.getLastActiveTime(), a.getLastActiveTime());
+            }
+        });
+        final boolean showing = mSwitchManager != null && mSwitchManager.isShowing();
+        long thumbBytes = 0;
+        for (TaskDescription td : tasks) {
+            Bitmap thumb = td.getThumb();
+            if (thumb == null) {
+                continue;
+            }
+            thumbBytes += thumb.getAllocationByteCount();
+            if (thumbBytes > budget && !(showing && mLoadedTasks.contains(td))) {
+                thumbBytes -= thumb.getAllocationByteCount();
+                td.clearThumb();
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "trimCachedThumbs " + thumbBytes + " budget " + budget);
+        }
+    }
+
+    // the task was removed - dont keep its thumbnail until the next load
+    public void removeCachedTask(int persistentTaskId) {
+        synchronized (mTaskCache) {
+            mTaskCache.remove(persistentTaskId);
+        }
+    }
+
     private class PreloadTaskRunnable implements Runnable {
         @Override
         public void run() {
+            mPreloadTasksRunnable = null;
+            if (mSession != null && !mSession.standby) {
+                // a show came first - dont publish the same result again
+                if (DEBUG) {
+                    Log.d(TAG, "preload skipped " + mSession);
+                }
+                return;
+            }
             if (DEBUG) {
                 Log.d(TAG, "preload start " + System.currentTimeMillis());
             }
@@ -168,90 +342,132 @@ public class RecentTasksLoader {
 
     public void cancelLoadingTasks() {
         if (DEBUG) {
-            Log.d(TAG, "cancelLoadingTasks state = " + mState);
-        }
-        if (mTaskLoader != null) {
-            mTaskLoader.cancel(true);
-            mTaskLoader = null;
-        }
-        if (mTaskInfoLoader != null) {
-            mTaskInfoLoader.cancel(true);
-            mTaskInfoLoader = null;
-        }
-        if (mThumbnailLoader != null) {
-            mThumbnailLoader.cancel(true);
-            mThumbnailLoader = null;
+            Log.d(TAG, "cancelLoadingTasks session = " + mSession);
         }
+        // drops all pending task, thumbnail and task info loads
+        startGeneration();
+        mTaskLoader = null;
+        mTaskInfoLoader = null;
         if (mPreloadTasksRunnable != null) {
             mHandler.removeCallbacks(mPreloadTasksRunnable);
             mPreloadTasksRunnable = null;
         }
         mLoadedTasks.clear();
         mLoadedTasksOriginal.clear();
-        mPreloaded = false;
-        mState = State.IDLE;
+        mSession = null;
+    }
+
+    private void startGeneration() {
+        mLoadGeneration++;
+        getExecutor().startGeneration(mLoadGeneration);
+        mThumbnailLoader.cancel(mLoadGeneration);
     }
 
     public void loadTasksInBackground(int maxNumTasks, boolean withIcons, boolean withThumbs) {
-        if (mPreloaded && mState != State.IDLE) {
-            if (DEBUG) {
-                Log.d(TAG, "recents preloaded: waiting for done");
+        if (mSession != null) {
+            if (!mSession.isLoaded()) {
+                if (DEBUG) {
+                    Log.d(TAG, "recents loading: waiting for done " + mSession);
+                }
+                return;
+            }
+            if (mSwitchManager != null) {
+                if (mSession.standby && mTopTaskMoved) {
+                    // switched tasks since the preload - its order is wrong
+                    if (DEBUG) {
+                        Log.d(TAG, "recents preload stale " + mSession);
+                    }
+                    cancelLoadingTasks();
+                    loadTasks(maxNumTasks, withIcons, withThumbs, false, 0);
+                    return;
+                }
+                if (DEBUG) {
+                    Log.d(TAG, "recents preloaded " + mSession);
+                }
+                if (mSession.standby && mLoadedTasksOriginal.size() != 0) {
+                    // the task we come from was used since the preload
+                    TaskDescription top = mLoadedTasksOriginal.get(0);
+                    top.invalidateThumb();
+                    loadThumbnail(top);
+                }
+                mSession.standby = false;
+                publishTasks(mSession);
             }
             return;
         }
-        if (mPreloaded && mSwitchManager != null) {
+        loadTasks(maxNumTasks, withIcons, withThumbs, false, 0);
+    }
+
+    /**
+     * load the recent tasks without publishing them so a following
+     * show can use them as they are. Thumbs beyond thumbBudget bytes
+     * are not kept.
+     */
+    public void loadStandbyTasks(long thumbBudget) {
+        cancelLoadingTasks();
+        mSwitchManager = null;
+        mTopTaskMoved = false;
+        loadTasks(0, true, true, true, thumbBudget);
+    }
+
+    /**
+     * a standby load that has not been shown yet - SwitchManager.show
+     * can publish it without loading again
+     */
+    public boolean isStandbyReady() {
+        return mSession != null && mSession.standby;
+    }
+
+    // a standby load is kept so that it can be published as it is
+    public void cancelLoadingTasksUnlessStandby() {
+        if (!isStandbyReady()) {
+            cancelLoadingTasks();
+        }
+    }
+
+    /**
+     * called from the task stack listener binder thread - a standby
+     * load started before has the wrong order and is not shown as it is
+     */
+    public void markTopTaskMoved() {
+        mTopTaskMoved = true;
+    }
+
+    // the tasks changed since the last standby load
+    public void invalidateStandby() {
+        if (isStandbyReady()) {
             if (DEBUG) {
-                Log.d(TAG, "recents preloaded " + mLoadedTasks);
+                Log.d(TAG, "invalidateStandby " + mSession);
             }
-            mSwitchManager.update(mLoadedTasks, mLoadedTasksOriginal);
-            loadMissingTaskInfo();
-            return;
+            cancelLoadingTasks();
         }
+    }
+
+    private void loadTasks(int maxNumTasks, boolean withIcons, boolean withThumbs,
+            boolean standby, long thumbBudget) {
+        // a new session makes all results of older loads stale
+        startGeneration();
+        final LoadSession session = new LoadSession(mLoadGeneration, standby, thumbBudget);
+        mSession = session;
         if (DEBUG) {
-            Log.d(TAG, "recents load");
+            Log.d(TAG, "recents load " + session);
         }
-        mPreloaded = true;
-        mState = State.LOADING;
         mLoadedTasks.clear();
         mLoadedTasksOriginal.clear();
-        if (withThumbs) {
-            BitmapCache.getInstance(mContext).clearThumbs();
-        }
 
         final long currentTime = System.currentTimeMillis();
         final long bootTimeMillis = currentTime - SystemClock.elapsedRealtime();
         mLockedAppsList.clear();
         mLockedAppsList.addAll(mConfiguration.mLockedAppList);
 
-        mTaskLoader = new AsyncTask<Void, List<TaskDescription>, Void>() {
-            @Override
-            protected void onProgressUpdate(
-                    List<TaskDescription>... values) {
-                if (!isCancelled()) {
-                    if (mSwitchManager != null) {
-                        if (DEBUG) {
-                            Log.d(TAG, "recents loaded");
-                        }
-                        mSwitchManager.update(mLoadedTasks, mLoadedTasksOriginal);
-                        loadMissingTaskInfo();
-                    } else {
-                        if (DEBUG) {
-                            Log.d(TAG, "recents preloaded");
-                        }
-                    }
-                }
-            }
-
+        mTaskLoader = new LoaderExecutor.Job(LoaderExecutor.LANE_TASKS, session.generation) {
             @Override
-            protected Void doInBackground(Void... params) {
+            protected void doInBackground() {
                 long start = System.currentTimeMillis();
                 if (DEBUG) {
                     Log.d(TAG, "loadTasksInBackground " + mSwitchManager + " start " + start);
                 }
 
-                final int origPri = Process.getThreadPriority(Process.myTid());
-                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
-
                 final List<ActivityManager.RecentTaskInfo> recentTasks = mActivityManager
                         .getRecentTasks(maxNumTasks == 0 ? ActivityManager.getMaxRecentTasksStatic() : maxNumTasks,
                                 ActivityManager.RECENT_IGNORE_UNAVAILABLE |
@@ -260,9 +476,26 @@ public class RecentTasksLoader {
                 int numTasks = recentTasks.size();
                 final ActivityInfo homeInfo = new Intent(Intent.ACTION_MAIN)
                         .addCategory(Intent.CATEGORY_HOME).resolveActivityInfo(mPackageManager, 0);
-                boolean isFirstValidTask = true;
+                final TaskFilterPipeline filter = createFilterPipeline(homeInfo,
+                        currentTime, bootTimeMillis);
+                final TaskFilterPipeline.TaskRecord record = new TaskFilterPipeline.TaskRecord();
                 int preloadTaskNum = 0;
-                final boolean withIconPack = IconPackHelper.getInstance(mContext).isIconPackLoaded();
+                final IconPackHelper.IconPack iconPack = getIconPackHelper().getIconPack();
+
+                final SparseArray<TaskDescription> lastTasks;
+                final int cacheEpoch;
+                synchronized (mTaskCache) {
+                    lastTasks = mTaskCache.clone();
+                    cacheEpoch = mTaskCacheEpoch;
+                }
+                final SparseArray<TaskDescription> newTasks = new SparseArray<TaskDescription>();
+                final List<TaskDescription> tasks = new ArrayList<TaskDescription>();
+                final List<TaskDescription> tasksOriginal = new ArrayList<TaskDescription>();
+                final TaskChangeSet changes = new TaskChangeSet(tasks, tasksOriginal);
+                // reused tasks and their current info - applied on the UI thread
+                final List<TaskDescription> reusedTasks = new ArrayList<TaskDescription>();
+                final List<ActivityManager.RecentTaskInfo> reusedInfos =
+                        new ArrayList<ActivityManager.RecentTaskInfo>();
 
                 for (int i = 0; i < numTasks; ++i) {
                     if (isCancelled()) {
@@ -275,18 +508,20 @@ public class RecentTasksLoader {
                     if (DEBUG) {
                         Log.d(TAG, "" + i + " recent item = " + recentInfo.baseIntent + " " + recentInfo.taskDescription.getLabel());
                     }
-                    TaskDescription item = createTaskDescription(recentInfo.id,
-                            recentInfo.persistentId, recentInfo.stackId,
-                            recentInfo.baseIntent, recentInfo.origActivity,
-                            recentInfo.supportsSplitScreenMultiWindow);
+                    TaskDescription item = reuseTaskDescription(lastTasks, recentInfo);
+                    final boolean reused = item != null;
+                    if (!reused) {
+                        item = createTaskDescription(recentInfo.id,
+                                recentInfo.persistentId, recentInfo.stackId,
+                                recentInfo.baseIntent, recentInfo.origActivity,
+                                recentInfo.supportsSplitScreenMultiWindow);
+                    }
 
                     if (item == null) {
                         continue;
                     }
 
-                    if (mLockedAppsList.contains(item.getPackageName())) {
-                        item.setLocked(true);
-                    }
+                    item.setLocked(mLockedAppsList.contains(item.getPackageName()));
 
                     Intent intent = new Intent(recentInfo.baseIntent);
                     if (recentInfo.origActivity != null) {
@@ -298,131 +533,250 @@ public class RecentTasksLoader {
                         item.setTaskBackgroundColor(taskDescription.getBackgroundColor());
                     }
 
-                    // Don't load the current home activity.
-                    if (isCurrentHomeActivity(intent.getComponent(), homeInfo)) {
-                        continue;
-                    }
-
-                    final String componentString = intent.getComponent().flattenToShortString();
-                    if (componentString.contains(".recents.RecentsActivity") ||
-                            componentString.contains("com.android.settings/.FallbackHome")) {
-                        continue;
-                    }
-
-                    boolean activeTask = true;
-                    // never time filter locked tasks
-                    if (mConfiguration.mFilterActive && !item.isLocked()) {
-                        long lastActiveTime = recentInfo.lastActiveTime;
-                        long firstActiveTime = recentInfo.firstActiveTime;
-                        if (DEBUG) {
-                            Log.d(TAG, intent.getComponent().getPackageName() + ": " + firstActiveTime + ":" + lastActiveTime + ":" + bootTimeMillis);
-                        }
-                        // only show active since boot
-                        if (mConfiguration.mFilterBoot && lastActiveTime < bootTimeMillis) {
-                            if (DEBUG) {
-                                Log.d(TAG, intent.getComponent().getPackageName() + ": filter app not active since boot");
-                            }
-                            activeTask = false;
-                        }
-                        if (activeTask) {
-                            // filter older then time
-                            if (mConfiguration.mFilterTime != 0 && lastActiveTime < currentTime - mConfiguration.mFilterTime) {
-                                if (DEBUG) {
-                                    Log.d(TAG, intent.getComponent().getPackageName() + ": filter app not active since " + mConfiguration.mFilterTime);
-                                }
-                                activeTask = false;
-                            }
-                        }
-                        if (activeTask) {
-                            if (mConfiguration.mFilterRunning && recentInfo.id < 0) {
-                                if (DEBUG) {
-                                    Log.d(TAG, intent.getComponent().getPackageName() + ": filter app not running");
-                                }
-                                activeTask = false;
-                            }
-                        }
-                    }
-
-                    if (!activeTask) {
+                    final boolean isExcluded = (recentInfo.baseIntent.getFlags() & Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS)
+                            == Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS;
+                    record.set(intent.getComponent().getPackageName(),
+                            intent.getComponent().getClassName(), recentInfo.lastActiveTime,
+                            recentInfo.id >= 0, isExcluded, item.isLocked());
+                    if (!filter.accept(record)) {
                         if (DEBUG) {
-                            Log.d(TAG, "skip inactive task =" + recentInfo.baseIntent);
+                            Log.d(TAG, "skip filtered task =" + recentInfo.baseIntent);
                         }
                         continue;
                     }
+                    // the task we come from - its activity time is not updated while in use
+                    final boolean topTask = filter.getAcceptedCount() == 1;
 
-                    // Check the first non-recents task, include this task even if it is marked as excluded
-                    boolean isExcluded = (recentInfo.baseIntent.getFlags() & Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS)
-                            == Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS;
-
-                    if (isExcluded && !isFirstValidTask) {
-                        continue;
+                    if (topTask || item.getLastActiveTime() != recentInfo.lastActiveTime) {
+                        item.invalidateThumb();
                     }
-                    isFirstValidTask = false;
+                    item.setLastActiveTime(recentInfo.lastActiveTime);
 
-                    mLoadedTasksOriginal.add(item);
-
-                    if (item.isLocked() && mConfiguration.mTopSortLockedApps) {
-                        mLoadedTasks.add(0, item);
+                    tasksOriginal.add(item);
+                    newTasks.put(item.persistentTaskId, item);
+                    if (!reused) {
+                        changes.addAdded(item);
                     } else {
-                        mLoadedTasks.add(item);
+                        reusedTasks.add(item);
+                        reusedInfos.add(recentInfo);
                     }
+
+                    filter.addSorted(tasks, item, record);
                     if (preloadTaskNum < TASK_INIT_LOAD) {
-                        if (withIcons) {
-                            String label = item.resolveInfo.loadLabel(mPackageManager).toString();
-                            loadTaskIcon(item, withIconPack, label);
+                        if (withIcons && (item.getIcon() == null || item.getLabel() == null)) {
+                            final long infoStart = CacheStats.now();
+                            mTaskInfoStats.miss();
+                            String label = mResolveInfoCache.getLabel(item.resolveEntry);
+                            loadTaskIcon(item, iconPack, label);
                             item.setLabel(label);
+                            mTaskInfoStats.loaded(infoStart);
+                        } else if (withIcons) {
+                            mTaskInfoStats.hit();
                         }
                         if (withThumbs) {
-                            Bitmap b = getThumbnail(item.persistentTaskId, true, preloadTaskNum == 0);
-                            if (b != null) {
-                                item.setThumb(b, false);
+                            if (item.isThumbStale()) {
+                                // the first task is upgraded to full resolution after publish
+                                Bitmap b = getThumbnail(item.persistentTaskId, true);
+                                if (b != null) {
+                                    item.setThumb(b, TaskDescription.THUMB_REDUCED, false);
+                                }
+                            } else {
+                                mThumbStats.hit();
                             }
                         }
                         preloadTaskNum++;
                     }
                 }
+                if (!isCancelled() && session.thumbBudget != 0) {
+                    trimThumbs(tasks, session.thumbBudget);
+                }
                 if (!isCancelled()) {
-                    publishProgress(mLoadedTasks);
+                    for (int i = 0; i < lastTasks.size(); i++) {
+                        if (newTasks.get(lastTasks.keyAt(i)) == null) {
+                            changes.addRemoved(lastTasks.valueAt(i));
+                        }
+                    }
+                    if (DEBUG) {
+                        Log.d(TAG, "recents reconciled " + changes);
+                    }
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (session != mSession || isCancelled()) {
+                                if (DEBUG) {
+                                    Log.d(TAG, "drop stale result " + session);
+                                }
+                                return;
+                            }
+                            synchronized (mTaskCache) {
+                                // dont store a stale result if the cache was invalidated meanwhile
+                                if (cacheEpoch == mTaskCacheEpoch) {
+                                    mTaskCache.clear();
+                                    for (int i = 0; i < newTasks.size(); i++) {
+                                        mTaskCache.put(newTasks.keyAt(i), newTasks.valueAt(i));
+                                    }
+                                }
+                            }
+                            for (int i = 0; i < reusedTasks.size(); i++) {
+                                final ActivityManager.RecentTaskInfo info = reusedInfos.get(i);
+                                reusedTasks.get(i).updateTaskInfo(info.id, info.stackId,
+                                        info.supportsSplitScreenMultiWindow);
+                            }
+                            mLoadedTasks.addAll(tasks);
+                            mLoadedTasksOriginal.addAll(tasksOriginal);
+                            trimCachedThumbs();
+                            session.changes = changes;
+                            if (mSwitchManager != null) {
+                                session.standby = false;
+                                publishTasks(session);
+                            }
+                        }
+                    });
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "loadTasksInBackground end " + (System.currentTimeMillis() - start));
+                    Log.d(TAG, "loadTasksInBackground end " + (System.currentTimeMillis() - start)
+                            + " thumb hits=" + mThumbStats.getHitCount() + " refetches=" + mThumbStats.getMissCount());
                 }
-                mState = State.IDLE;
-                Process.setThreadPriority(origPri);
-                return null;
             }
         };
-        mTaskLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        getExecutor().execute(mTaskLoader);
+    }
+
+    // keep thumbs in shown order until the budget is used up
+    private void trimThumbs(List<TaskDescription> tasks, long thumbBudget) {
+        long thumbBytes = 0;
+        for (TaskDescription td : tasks) {
+            Bitmap thumb = td.getThumb();
+            if (thumb == null) {
+                continue;
+            }
+            thumbBytes += thumb.getAllocationByteCount();
+            if (thumbBytes > thumbBudget) {
+                td.clearThumb();
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "trimThumbs " + thumbBytes + " budget " + thumbBudget);
+        }
     }
 
-    public Bitmap getThumbnail(int taskId, boolean reducedResolution, boolean firstThumb) {
+    private TaskFilterPipeline createFilterPipeline(ActivityInfo homeInfo,
+            long currentTime, long bootTimeMillis) {
+        TaskFilterPipeline filter = new TaskFilterPipeline();
+        // Don't load the current home activity.
+        if (homeInfo != null) {
+            filter.addStage(TaskFilterPipeline.excludeComponent(homeInfo.packageName, homeInfo.name));
+        }
+        filter.addStage(TaskFilterPipeline.excludeShortComponentContaining(
+                ".recents.RecentsActivity", "com.android.settings/.FallbackHome"));
+        if (mConfiguration.mFilterActive) {
+            // only show active since boot
+            if (mConfiguration.mFilterBoot) {
+                filter.addStage(TaskFilterPipeline.activeSince(bootTimeMillis));
+            }
+            // filter older then time
+            if (mConfiguration.mFilterTime != 0) {
+                filter.addStage(TaskFilterPipeline.activeSince(currentTime - mConfiguration.mFilterTime));
+            }
+            if (mConfiguration.mFilterRunning) {
+                filter.addStage(TaskFilterPipeline.running());
+            }
+        }
+        // must be last - the first task that passed all others is kept
+        filter.addStage(TaskFilterPipeline.excludeFromRecents());
+        filter.setTopSortLocked(mConfiguration.mTopSortLockedApps);
+        return filter;
+    }
+
+    // UI thread only
+    private void publishTasks(LoadSession session) {
+        if (DEBUG) {
+            Log.d(TAG, "recents loaded " + session);
+        }
+        LatencyTracker.beginSpan(LatencyTracker.SPAN_PUBLISH);
+        try {
+            mSwitchManager.update(session.changes);
+        } finally {
+            LatencyTracker.endSpan(LatencyTracker.SPAN_PUBLISH);
+        }
+        LatencyTracker.markOpen(LatencyTracker.MILESTONE_PUBLISHED);
+        loadMissingTaskInfo();
+        loadFirstFullThumbnail();
+    }
+
+    public Bitmap getThumbnail(int taskId, boolean reducedResolution) {
+        mThumbStats.miss();
+        final long start = CacheStats.now();
         try {
             ActivityManager.TaskSnapshot snapshot = ActivityManager.getService().getTaskSnapshot(taskId, reducedResolution);
             if (snapshot != null) {
                 if (DEBUG) {
-                    Log.d(TAG, "getThumbnail " + taskId);
+                    Log.d(TAG, "getThumbnail " + taskId + " reduced=" + reducedResolution);
                 }
                 return Bitmap.createHardwareBitmap(snapshot.getSnapshot());
             }
         } catch (RemoteException e) {
             Log.w(TAG, "Failed to retrieve snapshot", e);
+        } finally {
+            mThumbStats.loaded(start);
         }
         return null;
     }
 
-    void loadTaskIcon(TaskDescription td, boolean withIconPack, String label) {
-        Drawable icon = getFullResIcon(td.resolveInfo, withIconPack, label);
+    void loadTaskIcon(TaskDescription td, IconPackHelper.IconPack iconPack, String label) {
+        Drawable icon = getFullResIcon(td.resolveEntry, iconPack, label);
         if (icon == null) {
             icon = mDefaultAppIcon;
         }
         td.setIcon(icon);
+        createSizedIcon(td);
+    }
+
+    // the task icon as drawn in the thumbnail header
+    private void createSizedIcon(TaskDescription td) {
+        final int sizePx = mConfiguration.mOverlayIconSizePx;
+        final Drawable icon = td.getIcon();
+        if (icon == null || td.getSizedIcon(sizePx) != null) {
+            return;
+        }
+        Drawable sizedIcon = BitmapUtils.resize(mContext.getResources(), icon,
+                mConfiguration.mOverlayIconSizeDp, 0, mConfiguration.mDensity);
+        td.setSizedIcon(icon, sizedIcon, sizePx);
+    }
+
+    /**
+     * make the sized icon of td in background - until then
+     * the view draws the full icon
+     */
+    public void loadSizedIcon(final TaskDescription td) {
+        if (!td.startSizedIconLoad()) {
+            return;
+        }
+        getExecutor().execute(new LoaderExecutor.Job(LoaderExecutor.LANE_TASK_INFO,
+                LoaderExecutor.NO_GENERATION) {
+            @Override
+            protected void doInBackground() {
+                try {
+                    createSizedIcon(td);
+                } finally {
+                    td.finishSizedIconLoad();
+                }
+            }
+
+            @Override
+            protected void onCancelled() {
+                td.finishSizedIconLoad();
+            }
+        });
     }
 
     private IconPackHelper getIconPackHelper() {
         return IconPackHelper.getInstance(mContext);
     }
 
-    private Drawable getFullResIcon(ResolveInfo info, boolean withIconPack, String label) {
+    private Drawable getFullResIcon(ResolveInfoCache.Entry entry, IconPackHelper.IconPack iconPack,
+            String label) {
+        final ResolveInfo info = entry.resolveInfo;
         Resources resources;
         try {
             resources = mPackageManager
@@ -432,21 +786,21 @@ public class RecentTasksLoader {
         }
         if (resources != null) {
             int iconId = 0;
-            if (withIconPack) {
-                iconId = getIconPackHelper().getResourceIdForActivityIcon(info.activityInfo);
+            if (iconPack != null) {
+                iconId = iconPack.getResourceIdForActivityIcon(info.activityInfo);
                 if (iconId != 0) {
-                    return IconPackHelper.getInstance(mContext).getIconPackResources().getDrawable(iconId);
+                    return iconPack.getResources().getDrawable(iconId);
                 }
             }
-            iconId = info.activityInfo.getIconResource();
+            iconId = entry.iconResource;
             if (iconId != 0) {
                 try {
                     Drawable d = resources.getDrawable(iconId, null);
-                    if (withIconPack) {
+                    if (iconPack != null) {
                         d = BitmapUtils.compose(resources,
-                                d, mContext, getIconPackHelper().getIconBackFor(label),
-                                getIconPackHelper().getIconMask(), getIconPackHelper().getIconUpon(),
-                                getIconPackHelper().getIconScale(), mConfiguration.mIconSize, mConfiguration.mDensity);
+                                d, mContext, iconPack.getIconBackFor(label),
+                                iconPack.getIconMask(), iconPack.getIconUpon(),
+                                iconPack.getIconScale(), mConfiguration.mIconSize, mConfiguration.mDensity);
                     }
                     return d;
                 } catch (Exception e) {
@@ -460,78 +814,87 @@ public class RecentTasksLoader {
         if (!mHasThumbPermissions) {
             return;
         }
-        if (td.isThumbLoading()) {
+        mThumbnailLoader.request(td, mLoadGeneration);
+    }
+
+    /**
+     * upgrade the thumb of td to a full resolution snapshot
+     * once all pending reduced thumbs are loaded
+     */
+    public void loadFullThumbnail(final TaskDescription td) {
+        if (!mHasThumbPermissions) {
             return;
         }
-        mThumbnailLoader = new AsyncTask<Void, TaskDescription, Void>() {
-            @Override
-            protected void onProgressUpdate(TaskDescription... values) {
-            }
-            @Override
-            protected Void doInBackground(Void... params) {
-                final int origPri = Process.getThreadPriority(Process.myTid());
-                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+        mThumbnailLoader.requestUpgrade(td, mLoadGeneration);
+    }
 
-                if (DEBUG) {
-                    Log.d(TAG, "late load thumb " + td + " " + td.persistentTaskId);
-                }
-                td.setThumbLoading(true);
-                Bitmap b = getThumbnail(td.persistentTaskId, true, false);
-                if (b != null) {
-                    td.setThumbLoading(false);
-                    td.setThumb(b, true);
-                }
+    private void loadFirstFullThumbnail() {
+        if (mLoadedTasks.size() != 0) {
+            loadFullThumbnail(mLoadedTasks.get(0));
+        }
+    }
 
-                Process.setThreadPriority(origPri);
-                return null;
-            }
-        };
-        mThumbnailLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    /**
+     * thumbnails are fetched nearest to this position
+     * of the shown task list first
+     */
+    public void setThumbnailFocus(int position) {
+        mThumbnailLoader.setFocus(position);
+    }
+
+    List<TaskDescription> getLoadedTasks() {
+        return mLoadedTasks;
     }
 
     public void loadTaskInfo(final TaskDescription td) {
         synchronized(td) {
-            String label = td.resolveInfo.loadLabel(mPackageManager).toString();
-            final boolean withIconPack = IconPackHelper.getInstance(mContext).isIconPackLoaded();
-            Drawable icon = getFullResIcon(td.resolveInfo, withIconPack, label);
+            final long start = CacheStats.now();
+            mTaskInfoStats.miss();
+            String label = mResolveInfoCache.getLabel(td.resolveEntry);
+            final IconPackHelper.IconPack iconPack = getIconPackHelper().getIconPack();
+            Drawable icon = getFullResIcon(td.resolveEntry, iconPack, label);
             if (icon == null) {
                 icon = mDefaultAppIcon;
             }
             td.setIcon(icon);
             td.setLabel(label);
+            mTaskInfoStats.loaded(start);
         }
     }
 
     private void loadMissingTaskInfo() {
-        mTaskInfoLoader = new AsyncTask<Void, Void, Void>() {
+        mTaskInfoLoader = new LoaderExecutor.Job(LoaderExecutor.LANE_TASK_INFO, mLoadGeneration) {
             @Override
-            protected void onProgressUpdate(Void... values) {
-            }
-            @Override
-            protected Void doInBackground(Void... params) {
+            protected void doInBackground() {
                 long start = System.currentTimeMillis();
-                final int origPri = Process.getThreadPriority(Process.myTid());
-                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
                 for (TaskDescription td : mLoadedTasks) {
                     if (isCancelled()) {
                         break;
                     }
+                    if (td.getIcon() != null && td.getLabel() != null) {
+                        // kept from a previous load - the icon size may have changed
+                        createSizedIcon(td);
+                        continue;
+                    }
                     synchronized(td) {
                         if (DEBUG) {
                             Log.d(TAG, "late load task info " + td + " " + td.persistentTaskId);
                         }
                         loadTaskInfo(td);
                     }
+                    createSizedIcon(td);
                 }
                 if (DEBUG) {
                     Log.d(TAG, "loadMissingTaskInfo end " + (System.currentTimeMillis() - start));
                 }
-                Process.setThreadPriority(origPri);
-                return null;
             }
         };
-        mTaskInfoLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        getExecutor().execute(mTaskInfoLoader);
+    }
+
+    private LoaderExecutor getExecutor() {
+        return LoaderExecutor.getInstance();
     }
 
     private boolean hasSystemPermission(Context context) {
@@ -540,6 +903,45 @@ public class RecentTasksLoader {
         return result == android.content.pm.PackageManager.PERMISSION_GRANTED;
     }
 
+    public long getThumbHitCount() {
+        return mThumbStats.getHitCount();
+    }
+
+    public long getThumbRefetchCount() {
+        return mThumbStats.getMissCount();
+    }
+
+    // must be called on the UI thread
+    public void dump(PrintWriter pw, String prefix) {
+        long thumbBytes = 0;
+        for (TaskDescription td : mLoadedTasks) {
+            Bitmap thumb = td.getThumb();
+            if (thumb != null) {
+                thumbBytes += thumb.getAllocationByteCount();
+            }
+        }
+        long cachedThumbBytes = 0;
+        synchronized (mTaskCache) {
+            for (int i = 0; i < mTaskCache.size(); i++) {
+                Bitmap thumb = mTaskCache.valueAt(i).getThumb();
+                if (thumb != null) {
+                    cachedThumbBytes += thumb.getAllocationByteCount();
+                }
+            }
+            pw.println(prefix + "RecentTasksLoader: loaded=" + mLoadedTasks.size()
+                    + " cached=" + mTaskCache.size() + " session=" + mSession);
+        }
+        pw.println(prefix + "  cached thumbs=" + cachedThumbBytes / 1024 + "/"
+                + getThumbBudget() / 1024 + "kB");
+        mTaskInfoStats.dump(pw, prefix + "  ", -1);
+        mThumbStats.dump(pw, prefix + "  ", thumbBytes);
+    }
+
+    public void clearStats() {
+        mTaskInfoStats.clear();
+        mThumbStats.clear();
+    }
+
     public Bitmap getDefaultThumb() {
         return mDefaultThumbnail;
     }
@@ -0,0 +1,244 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import android.app.ActivityManager;
+import android.app.TaskStackListener;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps a standby load of the recent tasks up to date while the
+ * overlay is hidden so that it can be shown without loading.
+ * Reloads are triggered by task stack changes or - if the listener
+ * cannot be registered - by polling while the screen is on.
+ */
+class RecentsStandby {
+    private static final String TAG = "OmniSwitch:RecentsStandby";
+    private static final boolean DEBUG = false;
+
+    // collect bursts of task stack changes
+    private static final long REFRESH_DELAY = 500;
+    private static final long MIN_REFRESH_INTERVAL = 2000;
+    private static final long POLL_INTERVAL = 10000;
+    // thumbs kept in standby in screen sizes
+    private static final int THUMB_BUDGET_SCREENS = 2;
+
+    private final Context mContext;
+    private final SwitchManager mManager;
+    private final SwitchConfiguration mConfiguration;
+    private final Handler mHandler;
+    private final PowerManager mPowerManager;
+    private final RecentTasksLoader mLoader;
+    private boolean mEnabled;
+    // switched off by memory pressure until the next screen on
+    private boolean mSuspended;
+    private boolean mListenerRegistered;
+    private boolean mPolling;
+    private long mLastRefresh;
+
+    private final TaskStackListener mTaskStackListener = new TaskStackListener() {
+        @Override
+        public void onTaskStackChanged() throws RemoteException {
+            // binder thread
+            mHandler.post(mTaskStackChanged);
+        }
+
+        @Override
+        public void onTaskMovedToFront(int taskId) throws RemoteException {
+            // binder thread - a show can come before mTaskStackChanged runs
+            mLoader.markTopTaskMoved();
+        }
+    };
+
+    private final Runnable mTaskStackChanged = new Runnable() {
+        @Override
+        public void run() {
+            if (!isActive()) {
+                return;
+            }
+            if (mManager.isShowing()) {
+                // reload once hidden
+                scheduleRefresh(MIN_REFRESH_INTERVAL);
+                return;
+            }
+            getLoader().invalidateStandby();
+            scheduleRefresh(REFRESH_DELAY);
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                mHandler.removeCallbacks(mRefresh);
+                dropStandby();
+            } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                mSuspended = false;
+                scheduleRefresh(REFRESH_DELAY);
+            }
+        }
+    };
+
+    RecentsStandby(Context context, SwitchManager manager) {
+        mContext = context;
+        mManager = manager;
+        mConfiguration = SwitchConfiguration.getInstance(mContext);
+        mHandler = new Handler();
+        mPowerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        mLoader = RecentTasksLoader.getInstance(mContext);
+    }
+
+    void setEnabled(boolean enabled) {
+        if (mEnabled == enabled) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "setEnabled " + enabled);
+        }
+        mEnabled = enabled;
+        if (enabled) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            mContext.registerReceiver(mScreenReceiver, filter);
+            registerTaskStackListener();
+            mSuspended = false;
+            scheduleRefresh(0);
+        } else {
+            mContext.unregisterReceiver(mScreenReceiver);
+            unregisterTaskStackListener();
+            mHandler.removeCallbacks(mRefresh);
+            mHandler.removeCallbacks(mTaskStackChanged);
+            dropStandby();
+        }
+    }
+
+    // filters or other settings of the task list changed
+    void invalidate() {
+        if (isActive() && !mManager.isShowing()) {
+            getLoader().invalidateStandby();
+            scheduleRefresh(REFRESH_DELAY);
+        }
+    }
+
+    void onTrimMemory(int level) {
+        if (!mEnabled || mSuspended) {
+            return;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            if (DEBUG) {
+                Log.d(TAG, "onTrimMemory " + level + " - standby off until next screen on");
+            }
+            mSuspended = true;
+            mHandler.removeCallbacks(mRefresh);
+            dropStandby();
+        }
+    }
+
+    private boolean isActive() {
+        return mEnabled && !mSuspended && mPowerManager.isInteractive();
+    }
+
+    private void scheduleRefresh(long delay) {
+        mHandler.removeCallbacks(mRefresh);
+        // throttle refreshes on frequent task switches
+        long sinceLast = SystemClock.uptimeMillis() - mLastRefresh;
+        if (sinceLast < MIN_REFRESH_INTERVAL) {
+            delay = Math.max(delay, MIN_REFRESH_INTERVAL - sinceLast);
+        }
+        mHandler.postDelayed(mRefresh, delay);
+    }
+
+    private void refresh() {
+        if (!isActive()) {
+            return;
+        }
+        if (mPolling) {
+            scheduleRefresh(POLL_INTERVAL);
+        }
+        if (mManager.isShowing()) {
+            // the shown list is updated by SwitchManager - reload once hidden
+            scheduleRefresh(MIN_REFRESH_INTERVAL);
+            return;
+        }
+        RecentTasksLoader loader = getLoader();
+        if (!mPolling && loader.isStandbyReady()) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "refresh");
+        }
+        mLastRefresh = SystemClock.uptimeMillis();
+        loader.loadStandbyTasks(getThumbBudget());
+    }
+
+    private void dropStandby() {
+        if (!mManager.isShowing()) {
+            getLoader().invalidateStandby();
+        }
+    }
+
+    private long getThumbBudget() {
+        return (long) THUMB_BUDGET_SCREENS * mConfiguration.getCurrentDisplayWidth()
+                * mConfiguration.getCurrentDisplayHeight() * 4;
+    }
+
+    private void registerTaskStackListener() {
+        try {
+            ActivityManager.getService().registerTaskStackListener(mTaskStackListener);
+            mListenerRegistered = true;
+            mPolling = false;
+        } catch (Exception e) {
+            Log.w(TAG, "registerTaskStackListener failed - polling", e);
+            mPolling = true;
+        }
+    }
+
+    private void unregisterTaskStackListener() {
+        if (mListenerRegistered) {
+            try {
+                ActivityManager.getService().unregisterTaskStackListener(mTaskStackListener);
+            } catch (Exception e) {
+                Log.w(TAG, "unregisterTaskStackListener failed", e);
+            }
+            mListenerRegistered = false;
+        }
+        mPolling = false;
+    }
+
+    private RecentTasksLoader getLoader() {
+        return mLoader;
+    }
+}
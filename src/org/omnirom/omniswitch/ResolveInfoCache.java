@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.util.Log;
+
+/**
+ * Intent component keyed cache of the resolved activity, its label
+ * and icon resource id for the recent tasks. Entries are only
+ * dropped on package changes and locale changes.
+ */
+class ResolveInfoCache {
+    private static final String TAG = "OmniSwitch:ResolveInfoCache";
+    private static final boolean DEBUG = false;
+
+    private final PackageManager mPackageManager;
+    private final HashMap<ComponentName, Entry> mEntries;
+
+    static class Entry {
+        final ResolveInfo resolveInfo;
+        final int iconResource;
+        private String mLabel;
+
+        Entry(ResolveInfo info) {
+            resolveInfo = info;
+            iconResource = info.activityInfo.getIconResource();
+        }
+    }
+
+    ResolveInfoCache(PackageManager packageManager) {
+        mPackageManager = packageManager;
+        mEntries = new HashMap<ComponentName, Entry>();
+    }
+
+    /**
+     * resolve the activity of intent - null if it cannot be resolved.
+     * Entries are keyed by the intent component which differs from
+     * the resolved activity for an activity-alias. Intents without
+     * a component get an entry that is not cached.
+     */
+    Entry resolveActivity(Intent intent) {
+        final ComponentName component = intent.getComponent();
+        if (component != null) {
+            synchronized (mEntries) {
+                Entry entry = mEntries.get(component);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
+        if (resolveInfo == null) {
+            return null;
+        }
+        final Entry entry = new Entry(resolveInfo);
+        if (component != null) {
+            if (DEBUG) {
+                Log.d(TAG, "resolved " + component);
+            }
+            synchronized (mEntries) {
+                mEntries.put(component, entry);
+            }
+        }
+        return entry;
+    }
+
+    String getLabel(Entry entry) {
+        synchronized (entry) {
+            if (entry.mLabel == null) {
+                entry.mLabel = entry.resolveInfo.loadLabel(mPackageManager).toString();
+            }
+            return entry.mLabel;
+        }
+    }
+
+    void removePackage(String packageName) {
+        synchronized (mEntries) {
+            Iterator<ComponentName> nextKey = mEntries.keySet().iterator();
+            while (nextKey.hasNext()) {
+                if (nextKey.next().getPackageName().equals(packageName)) {
+                    nextKey.remove();
+                }
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+}
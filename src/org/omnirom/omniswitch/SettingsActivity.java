@@ -17,6 +17,9 @@
  */
 package org.omnirom.omniswitch;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -113,6 +116,9 @@ public class SettingsActivity extends PreferenceActivity implements
     private static final String PREF_HIDDEN_APPS_CONFIG = "hidden_apps_config";
     public static final String PREF_HIDDEN_APPS = "hidden_apps";
     public static final String PREF_COLOR_TASK_HEADER = "color_task_header";
+    public static final String PREF_STANDBY_MODE = "standby_mode";
+    private static final String PREF_LATENCY_STATS = "latency_stats";
+    private static final String PREF_CACHE_STATS = "cache_stats";
 
     public static final String WEATHER_ICON_PACK_PREFERENCE_KEY = "pref_weatherIconPack";
     public static final String SHOW_ALL_DAY_EVENTS_PREFERENCE_KEY = "pref_allDayEvents";
@@ -174,6 +180,8 @@ public class SettingsActivity extends PreferenceActivity implements
     private CheckBoxPreference mRevertRecents;
     private Preference mHiddenAppsConfig;
     private CheckBoxPreference mColorTaskHeader;
+    private Preference mLatencyStats;
+    private Preference mCacheStats;
 
     @Override
     public void onPause() {
@@ -271,6 +279,8 @@ public class SettingsActivity extends PreferenceActivity implements
         mFavoriteAppsConfigStat = (Preference) findPreference(PREF_FAVORITE_APPS_CONFIG_STAT);
         mRevertRecents = (CheckBoxPreference) findPreference(PREF_REVERT_RECENTS);
         mColorTaskHeader = (CheckBoxPreference) findPreference(PREF_COLOR_TASK_HEADER);
+        mLatencyStats = (Preference) findPreference(PREF_LATENCY_STATS);
+        mCacheStats = (Preference) findPreference(PREF_CACHE_STATS);
 
         boolean vertical = mLayoutStyle.getValue().equals("1");
         mRevertRecents.setEnabled(vertical);
@@ -428,10 +438,69 @@ public class SettingsActivity extends PreferenceActivity implements
             SwitchStatistics.getInstance(this).clear();
             Toast.makeText(SettingsActivity.this, R.string.launch_stats_delete_notice, Toast.LENGTH_LONG).show();
             return true;
+        } else if (preference == mLatencyStats) {
+            showLatencyStats();
+            return true;
+        } else if (preference == mCacheStats) {
+            showCacheStats();
+            return true;
         }
         return false;
     }
 
+    private void showCacheStats() {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        SwitchService.dumpCaches(this, pw);
+        pw.flush();
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.cache_stats_title)
+            .setMessage(sw.toString())
+            .setCancelable(true)
+            .setNegativeButton(R.string.latency_stats_clear,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            SwitchService.clearCacheStats(SettingsActivity.this);
+                        }
+                    })
+            .setPositiveButton(android.R.string.ok, null)
+            .show();
+    }
+
+    private void showLatencyStats() {
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.latency_stats_title)
+            .setMessage(LatencyTracker.dumpToString())
+            .setCancelable(true)
+            .setNegativeButton(R.string.latency_stats_clear,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            LatencyTracker.clear();
+                        }
+                    })
+            .setPositiveButton(R.string.latency_stats_dump,
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            File dir = getExternalFilesDir(null);
+                            if (dir == null) {
+                                dir = getFilesDir();
+                            }
+                            File file = new File(dir, "latency_stats.txt");
+                            if (LatencyTracker.dumpToFile(file)) {
+                                Toast.makeText(SettingsActivity.this,
+                                        getString(R.string.latency_stats_dump_notice, file.getAbsolutePath()),
+                                        Toast.LENGTH_LONG).show();
+                            } else {
+                                Toast.makeText(SettingsActivity.this,
+                                        R.string.latency_stats_dump_failed, Toast.LENGTH_LONG).show();
+                            }
+                        }
+                    }).show();
+    }
+
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
         if (preference == mIconSize) {
@@ -116,6 +116,7 @@ public class SwitchConfiguration {
     public Set<String> mHiddenAppsList = new HashSet<String>();
     public Launcher mLauncher;
     public boolean mColorfulHeader;
+    public boolean mStandbyMode;
 
     // old pref slots
     private static final String PREF_DRAG_HANDLE_COLOR = "drag_handle_color";
@@ -306,6 +307,7 @@ public class SwitchConfiguration {
         mBlockSplitscreenBreakers = prefs.getBoolean(SettingsActivity.PREF_BLOCK_APPS_ON_SPLITSCREEN, true);
         mUsePowerHint = prefs.getBoolean(SettingsActivity.PREF_USE_POWER_HINT, false);
         mColorfulHeader = prefs.getBoolean(SettingsActivity.PREF_COLOR_TASK_HEADER, false);
+        mStandbyMode = prefs.getBoolean(SettingsActivity.PREF_STANDBY_MODE, false);
 
         mHiddenAppsList.clear();
         String hiddenListString = prefs.getString(SettingsActivity.PREF_HIDDEN_APPS, "");
@@ -100,16 +100,21 @@ public class SwitchManager {
             if (DEBUG){
                 Log.d(TAG, "show");
             }
-            startBoost();
-            mLayout.setHandleRecentsUpdate(true);
-
-            clearTasks();
-            RecentTasksLoader.getInstance(mContext).cancelLoadingTasks();
-            RecentTasksLoader.getInstance(mContext).setSwitchManager(this);
-            RecentTasksLoader.getInstance(mContext).loadTasksInBackground(0, true, true);
-
-            // show immediately
-            mLayout.show();
+            LatencyTracker.beginSpan(LatencyTracker.SPAN_SHOW);
+            try {
+                startBoost();
+                mLayout.setHandleRecentsUpdate(true);
+
+                clearTasks();
+                RecentTasksLoader.getInstance(mContext).cancelLoadingTasksUnlessStandby();
+                RecentTasksLoader.getInstance(mContext).setSwitchManager(this);
+                RecentTasksLoader.getInstance(mContext).loadTasksInBackground(0, true, true);
+
+                // show immediately
+                mLayout.show();
+            } finally {
+                LatencyTracker.endSpan(LatencyTracker.SPAN_SHOW);
+            }
         }
     }
 
@@ -119,8 +124,13 @@ public class SwitchManager {
                 Log.d(TAG, "showPreloaded");
             }
 
-            // show immediately
-            mLayout.show();
+            LatencyTracker.beginSpan(LatencyTracker.SPAN_SHOW);
+            try {
+                // show immediately
+                mLayout.show();
+            } finally {
+                LatencyTracker.endSpan(LatencyTracker.SPAN_SHOW);
+            }
         }
     }
 
@@ -186,10 +196,17 @@ public class SwitchManager {
         return mGestureView;
     }
 
-    public void update(List<TaskDescription> taskList, List<TaskDescription> taskListOriginal) {
-        mLoadedTasksOriginal = taskListOriginal;
+    public void update(TaskChangeSet changes) {
+        if (DEBUG){
+            Log.d(TAG, "update " + changes);
+        }
+        mLoadedTasksOriginal = changes.getTasksOriginal();
         mLoadedTasks.clear();
-        mLoadedTasks.addAll(taskList);
+        mLoadedTasks.addAll(changes.getTasks());
+        for (TaskDescription ad : changes.getRemoved()) {
+            // no longer shown - dont deliver late thumbs
+            ad.setThumbChangeListener(null);
+        }
         mLayout.update();
         mGestureView.update();
     }
@@ -617,6 +634,7 @@ public class SwitchManager {
         } catch (RemoteException e) {
             Log.e(TAG, "removeTask failed", e);
         }
+        RecentTasksLoader.getInstance(mContext).removeCachedTask(taskid);
     }
 
     public void dockTask(TaskDescription ad, boolean close) {
@@ -27,6 +27,7 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -34,14 +35,21 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.UserHandle;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class SwitchService extends Service {
     private final static String TAG = "OmniSwitch:SwitchService";
@@ -49,18 +57,21 @@ public class SwitchService extends Service {
 
     private static final int START_SERVICE_ERROR_ID = 0;
     private static final int START_PERMISSION_SETTINGS_ID = 1;
+    private static final long DUMP_TIMEOUT = 5000;
     public static final String DPI_CHANGE = "dpi_change";
 
     private RecentsReceiver mReceiver;
     private static SwitchManager mManager;
     private SharedPreferences mPrefs;
     private SharedPreferences.OnSharedPreferenceChangeListener mPrefsListener;
+    private IconPackHelper.OnIconPackReadyListener mIconPackListener;
     private static SwitchConfiguration mConfiguration;
     private static int mUserId = -1;
     private Set<String> mPrefKeyFilter = new HashSet<String>();
     private static boolean mIsRunning;
     private static boolean mCommitSuicide;
     private static boolean mPreloadDone;
+    private RecentsStandby mStandby;
 
     public static boolean isRunning() {
         return mIsRunning;
@@ -97,6 +108,7 @@ public class SwitchService extends Service {
 
             String layoutStyle = mPrefs.getString(SettingsActivity.PREF_LAYOUT_STYLE, "1");
             mManager = new SwitchManager(this, Integer.valueOf(layoutStyle));
+            mStandby = new RecentsStandby(this, mManager);
 
             mReceiver = new RecentsReceiver();
             IntentFilter filter = new IntentFilter();
@@ -122,6 +134,18 @@ public class SwitchService extends Service {
             };
 
             mPrefs.registerOnSharedPreferenceChangeListener(mPrefsListener);
+
+            // icons shown while the pack was loading are made again
+            mIconPackListener = new IconPackHelper.OnIconPackReadyListener() {
+                @Override
+                public void onIconPackReady() {
+                    if (mManager != null) {
+                        warmUpIcons();
+                        mManager.updatePrefs(mPrefs, SettingsActivity.PREF_ICONPACK);
+                    }
+                }
+            };
+            IconPackHelper.getInstance(this).addOnReadyListener(mIconPackListener);
             if (mConfiguration.mLaunchStatsEnabled) {
                 SwitchStatistics.getInstance(this).loadStatistics();
             }
@@ -143,6 +167,12 @@ public class SwitchService extends Service {
         } catch(IllegalArgumentException e) {
             // ignored on purpose
         }
+        if (mIconPackListener != null) {
+            IconPackHelper.getInstance(this).removeOnReadyListener(mIconPackListener);
+        }
+        if (mStandby != null) {
+            mStandby.setEnabled(false);
+        }
         if (mManager != null) {
             mManager.killManager();
             mManager.shutdownService();
@@ -179,8 +209,13 @@ public class SwitchService extends Service {
 
         @Override
         public void onReceive(final Context context, Intent intent) {
+            final String action = intent.getAction();
+            final boolean toggle = ACTION_TOGGLE_OVERLAY.equals(action)
+                    || ACTION_TOGGLE_OVERLAY2.equals(action);
+            if (toggle) {
+                LatencyTracker.beginSpan(LatencyTracker.SPAN_RECEIVE);
+            }
             try {
-                String action = intent.getAction();
                 if(DEBUG){
                     Log.d(TAG, "onReceive " + action);
                 }
@@ -197,6 +232,7 @@ public class SwitchService extends Service {
                     if (mManager.isShowing()) {
                         mManager.hide(false);
                     } else {
+                        LatencyTracker.startOpen();
                         mManager.show();
                     }
                 } else if (ACTION_TOGGLE_OVERLAY2.equals(action)) {
@@ -206,6 +242,7 @@ public class SwitchService extends Service {
                     if (mManager.isShowing()) {
                         mManager.hide(false);
                     } else {
+                        LatencyTracker.startOpen();
                         if (mPreloadDone) {
                             mManager.showPreloaded();
                         } else {
@@ -241,7 +278,7 @@ public class SwitchService extends Service {
                     }
                     if (!mManager.isShowing()) {
                         mManager.beforePreloadTasks();
-                        RecentTasksLoader.getInstance(context).cancelLoadingTasks();
+                        RecentTasksLoader.getInstance(context).cancelLoadingTasksUnlessStandby();
                         RecentTasksLoader.getInstance(context).setSwitchManager(mManager);
                         RecentTasksLoader.getInstance(context).preloadTasks();
                         mPreloadDone = true;
@@ -249,10 +286,23 @@ public class SwitchService extends Service {
                 }
             } catch(Exception e) {
                 Log.e(TAG,"onReceive", e);
+            } finally {
+                if (toggle) {
+                    LatencyTracker.endSpan(LatencyTracker.SPAN_RECEIVE);
+                }
             }
         }
     }
 
+    // compose all icons of the new pack before they are shown
+    private void warmUpIcons() {
+        Set<String> recentPackages = new HashSet<String>();
+        for (TaskDescription td : mManager.getTasks()) {
+            recentPackages.add(td.getPackageName());
+        }
+        BitmapCache.getInstance(this).warmUpIcons(getResources(), mConfiguration, recentPackages);
+    }
+
     public void updatePrefs(SharedPreferences prefs, String key) {
         if (isFilteredPrefsChange(key)) {
             return;
@@ -264,6 +314,75 @@ public class SwitchService extends Service {
         IconPackHelper.getInstance(this).updatePrefs(prefs, key);
         mConfiguration.updatePrefs(prefs, key);
         mManager.updatePrefs(prefs, key);
+        mStandby.setEnabled(mConfiguration.mStandbyMode);
+        mStandby.invalidate();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mIsRunning) {
+            mStandby.onTrimMemory(level);
+        }
+        BitmapCache.getInstance(this).onTrimMemory(level);
+        RecentTasksLoader.getInstance(this).onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapCache.getInstance(this).onLowMemory();
+        RecentTasksLoader.getInstance(this).onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        // binder thread - the caches must be read on the UI thread
+        final StringWriter out = new StringWriter();
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                PrintWriter uiPw = new PrintWriter(out);
+                dumpCaches(SwitchService.this, uiPw);
+                uiPw.flush();
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(DUMP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                pw.println("OmniSwitch caches: UI thread not responding");
+                return;
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+        pw.print(out.toString());
+    }
+
+    /**
+     * print the cache and latency statistics - UI thread only
+     */
+    public static void dumpCaches(Context context, PrintWriter pw) {
+        if (!mIsRunning) {
+            pw.println("OmniSwitch service not running");
+            return;
+        }
+        pw.println("OmniSwitch caches:");
+        BitmapCache.getInstance(context).dump(pw, "  ");
+        IconPackHelper.getInstance(context).dump(pw, "  ");
+        RecentTasksLoader.getInstance(context).dump(pw, "  ");
+        LatencyTracker.dump(pw);
+    }
+
+    public static void clearCacheStats(Context context) {
+        if (!mIsRunning) {
+            return;
+        }
+        BitmapCache.getInstance(context).clearStats();
+        IconPackHelper.getInstance(context).clearStats();
+        RecentTasksLoader.getInstance(context).clearStats();
+        LatencyTracker.clear();
     }
 
     @Override
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * result of reconciling a new recent tasks list against the
+ * previously loaded one - unchanged tasks are the same objects
+ * as before and keep their icon, label and thumb
+ */
+public final class TaskChangeSet {
+    private final List<TaskDescription> mTasks;
+    private final List<TaskDescription> mTasksOriginal;
+    private final List<TaskDescription> mAdded;
+    private final List<TaskDescription> mRemoved;
+
+    public TaskChangeSet(List<TaskDescription> tasks, List<TaskDescription> tasksOriginal) {
+        mTasks = tasks;
+        mTasksOriginal = tasksOriginal;
+        mAdded = new ArrayList<TaskDescription>();
+        mRemoved = new ArrayList<TaskDescription>();
+    }
+
+    // sorted list as shown
+    public List<TaskDescription> getTasks() {
+        return mTasks;
+    }
+
+    // list in recent tasks order
+    public List<TaskDescription> getTasksOriginal() {
+        return mTasksOriginal;
+    }
+
+    public List<TaskDescription> getAdded() {
+        return mAdded;
+    }
+
+    public List<TaskDescription> getRemoved() {
+        return mRemoved;
+    }
+
+    void addAdded(TaskDescription td) {
+        mAdded.add(td);
+    }
+
+    void addRemoved(TaskDescription td) {
+        mRemoved.add(td);
+    }
+
+    public boolean hasChanges() {
+        return mAdded.size() != 0 || mRemoved.size() != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "tasks=" + mTasks.size() + " added=" + mAdded.size()
+                + " removed=" + mRemoved.size();
+    }
+}
@@ -29,17 +29,30 @@ import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 
 public final class TaskDescription {
+    // thumbnail tiers - a thumb is never replaced by a lower tier
+    public static final int THUMB_NONE = 0;
+    public static final int THUMB_REDUCED = 1;
+    public static final int THUMB_FULL = 2;
+
     final ResolveInfo resolveInfo;
-    final int taskId; // application task id for curating apps
+    // the cached resolve result with its label and icon resource
+    final ResolveInfoCache.Entry resolveEntry;
+    int taskId; // application task id for curating apps
     final int persistentTaskId; // persistent id
     final Intent intent; // launch intent for application
-    final int stackId;
+    int stackId;
     private Drawable mIcon; // application package icon
+    // mIcon rasterized at mSizedIconSizePx for the thumbnail header
+    private Drawable mSizedIcon;
+    private int mSizedIconSizePx;
+    private boolean mSizedIconLoading;
     private boolean mIsActive;
     private boolean mKilled;
     private ThumbChangeListener mListener;
-    private boolean mThumbLoading;
+    private volatile boolean mThumbLoading;
     private Bitmap mThumb;
+    private int mThumbQuality = THUMB_NONE;
+    private long mLastActiveTime;
     private String mLabel;
     private boolean mLocked;
     private boolean mNeedsUpdate;
@@ -54,9 +67,10 @@ public final class TaskDescription {
     }
 
     public TaskDescription(int _taskId, int _persistentTaskId,
-            ResolveInfo _resolveInfo, Intent _intent,
+            ResolveInfoCache.Entry _resolveEntry, Intent _intent,
             int _stackId, boolean supportsSplitScreen) {
-        resolveInfo = _resolveInfo;
+        resolveEntry = _resolveEntry;
+        resolveInfo = _resolveEntry.resolveInfo;
         intent = _intent;
         taskId = _taskId;
         persistentTaskId = _persistentTaskId;
@@ -64,14 +78,56 @@ public final class TaskDescription {
         mSupportsSplitScreen = supportsSplitScreen;
     }
 
-    public Drawable getIcon() {
+    // refresh the volatile parts of a task kept from a previous load - UI thread only
+    void updateTaskInfo(int _taskId, int _stackId, boolean supportsSplitScreen) {
+        taskId = _taskId;
+        stackId = _stackId;
+        mSupportsSplitScreen = supportsSplitScreen;
+    }
+
+    public synchronized Drawable getIcon() {
         return mIcon;
     }
 
-    public void setIcon(Drawable icon) {
+    public synchronized void setIcon(Drawable icon) {
+        if (icon != mIcon) {
+            mSizedIcon = null;
+        }
         mIcon = icon;
     }
 
+    /**
+     * the icon at this size in px - null if it has not been made
+     * or was made for another size
+     */
+    public synchronized Drawable getSizedIcon(int sizePx) {
+        return mSizedIconSizePx == sizePx ? mSizedIcon : null;
+    }
+
+    /**
+     * @param icon the icon sizedIcon was made from - ignored if it is
+     * not the current one anymore
+     */
+    public synchronized void setSizedIcon(Drawable icon, Drawable sizedIcon, int sizePx) {
+        if (icon == mIcon) {
+            mSizedIcon = sizedIcon;
+            mSizedIconSizePx = sizePx;
+        }
+    }
+
+    // true if the caller should make the sized icon
+    synchronized boolean startSizedIconLoad() {
+        if (mSizedIconLoading) {
+            return false;
+        }
+        mSizedIconLoading = true;
+        return true;
+    }
+
+    synchronized void finishSizedIconLoad() {
+        mSizedIconLoading = false;
+    }
+
     public int getTaskId() {
         return taskId;
     }
@@ -117,11 +173,42 @@ public final class TaskDescription {
         return intent.toString();
     }
 
-    public void setThumb(Bitmap thumb, boolean callListener) {
+    public boolean setThumb(Bitmap thumb, int quality, boolean callListener) {
+        if (quality < mThumbQuality) {
+            return false;
+        }
         mThumb = thumb;
+        mThumbQuality = quality;
         if (callListener) {
             callListener();
         }
+        return true;
+    }
+
+    public int getThumbQuality() {
+        return mThumbQuality;
+    }
+
+    void clearThumb() {
+        mThumb = null;
+        mThumbQuality = THUMB_NONE;
+    }
+
+    // keep showing the old thumb but allow any tier to replace it
+    void invalidateThumb() {
+        mThumbQuality = THUMB_NONE;
+    }
+
+    public boolean isThumbStale() {
+        return mThumb == null || mThumbQuality == THUMB_NONE;
+    }
+
+    long getLastActiveTime() {
+        return mLastActiveTime;
+    }
+
+    void setLastActiveTime(long lastActiveTime) {
+        mLastActiveTime = lastActiveTime;
     }
 
     public void setThumbChangeListener(ThumbChangeListener client) {
@@ -0,0 +1,222 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filter stages deciding which recent tasks are shown. Stages work
+ * on a plain TaskRecord and have no framework dependencies. A task
+ * is accepted if all stages accept it - stages run in the order they
+ * were added and stop at the first rejecting one.
+ */
+public final class TaskFilterPipeline {
+    private final List<Stage> mStages = new ArrayList<Stage>();
+    private boolean mTopSortLocked;
+    private int mAcceptedCount;
+
+    /**
+     * the values of a recent task the stages look at. One record
+     * can be reused for all tasks of a load.
+     */
+    public static final class TaskRecord {
+        public String packageName;
+        public String className;
+        public long lastActiveTime;
+        public boolean running;
+        public boolean excludeFromRecents;
+        public boolean locked;
+        private String mShortComponent;
+
+        public TaskRecord set(String _packageName, String _className, long _lastActiveTime,
+                boolean _running, boolean _excludeFromRecents, boolean _locked) {
+            packageName = _packageName;
+            className = _className;
+            lastActiveTime = _lastActiveTime;
+            running = _running;
+            excludeFromRecents = _excludeFromRecents;
+            locked = _locked;
+            mShortComponent = null;
+            return this;
+        }
+
+        // same as ComponentName.flattenToShortString
+        public String getShortComponent() {
+            if (mShortComponent == null) {
+                if (className.startsWith(packageName)
+                        && className.length() > packageName.length()
+                        && className.charAt(packageName.length()) == '.') {
+                    mShortComponent = packageName + "/" + className.substring(packageName.length());
+                } else {
+                    mShortComponent = packageName + "/" + className;
+                }
+            }
+            return mShortComponent;
+        }
+
+        @Override
+        public String toString() {
+            return packageName + "/" + className;
+        }
+    }
+
+    public interface Stage {
+        public boolean accept(TaskRecord task);
+
+        // called before the first task of a new load
+        public void reset();
+    }
+
+    public static abstract class StatelessStage implements Stage {
+        @Override
+        public void reset() {
+        }
+    }
+
+    public TaskFilterPipeline addStage(Stage stage) {
+        mStages.add(stage);
+        return this;
+    }
+
+    public List<Stage> getStages() {
+        return mStages;
+    }
+
+    public void setTopSortLocked(boolean topSortLocked) {
+        mTopSortLocked = topSortLocked;
+    }
+
+    public void reset() {
+        mAcceptedCount = 0;
+        for (int i = 0; i < mStages.size(); i++) {
+            mStages.get(i).reset();
+        }
+    }
+
+    public boolean accept(TaskRecord task) {
+        for (int i = 0; i < mStages.size(); i++) {
+            if (!mStages.get(i).accept(task)) {
+                return false;
+            }
+        }
+        mAcceptedCount++;
+        return true;
+    }
+
+    // number of tasks accepted since the last reset
+    public int getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    /**
+     * add an accepted task to the shown list - locked tasks
+     * go first if top sorting is enabled
+     */
+    public <T> void addSorted(List<T> tasks, T item, TaskRecord task) {
+        if (task.locked && mTopSortLocked) {
+            tasks.add(0, item);
+        } else {
+            tasks.add(item);
+        }
+    }
+
+    /**
+     * filter a list of records - mainly to run the pipeline
+     * without a recent tasks list behind it
+     */
+    public List<TaskRecord> filter(List<TaskRecord> tasks) {
+        List<TaskRecord> accepted = new ArrayList<TaskRecord>(tasks.size());
+        reset();
+        for (int i = 0; i < tasks.size(); i++) {
+            TaskRecord task = tasks.get(i);
+            if (accept(task)) {
+                addSorted(accepted, task, task);
+            }
+        }
+        return accepted;
+    }
+
+    // the current home activity
+    public static Stage excludeComponent(final String packageName, final String className) {
+        return new StatelessStage() {
+            @Override
+            public boolean accept(TaskRecord task) {
+                return !(packageName.equals(task.packageName) && className.equals(task.className));
+            }
+        };
+    }
+
+    public static Stage excludeShortComponentContaining(final String... parts) {
+        return new StatelessStage() {
+            @Override
+            public boolean accept(TaskRecord task) {
+                final String component = task.getShortComponent();
+                for (String part : parts) {
+                    if (component.contains(part)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    // locked tasks are never time filtered
+    public static Stage activeSince(final long time) {
+        return new StatelessStage() {
+            @Override
+            public boolean accept(TaskRecord task) {
+                return task.locked || task.lastActiveTime >= time;
+            }
+        };
+    }
+
+    public static Stage running() {
+        return new StatelessStage() {
+            @Override
+            public boolean accept(TaskRecord task) {
+                return task.locked || task.running;
+            }
+        };
+    }
+
+    /**
+     * drop tasks excluded from recents - except the first task
+     * that got this far which is the one we come from
+     */
+    public static Stage excludeFromRecents() {
+        return new Stage() {
+            private boolean mFirstTask = true;
+
+            @Override
+            public boolean accept(TaskRecord task) {
+                if (task.excludeFromRecents && !mFirstTask) {
+                    return false;
+                }
+                mFirstTask = false;
+                return true;
+            }
+
+            @Override
+            public void reset() {
+                mFirstTask = true;
+            }
+        };
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+/**
+ * Fetches task thumbnails for RecentTasksLoader. Requests are
+ * collapsed per persistentTaskId and served nearest to the focused
+ * list position first by a single drain job on the thumbnail lane.
+ * The first result is handed to the UI thread right away, the
+ * rest in batches. Reduced snapshots are fetched first, the
+ * single full resolution upgrade slot is served once no reduced
+ * fetch is pending.
+ */
+class ThumbnailLoader {
+    private static final String TAG = "OmniSwitch:ThumbnailLoader";
+    private static final boolean DEBUG = false;
+    private static final int BATCH_SIZE = 4;
+
+    private final RecentTasksLoader mLoader;
+    private final Handler mHandler;
+    // guarded by this
+    private final SparseArray<TaskDescription> mPending;
+    // persistentTaskId -> generation of the running reduced fetch
+    private final SparseIntArray mInFlight;
+    private TaskDescription mUpgrade;
+    private boolean mDrainRunning;
+    private int mGeneration;
+    private volatile int mFocus;
+
+    private static class Result {
+        final TaskDescription mTask;
+        final Bitmap mThumb;
+        final int mQuality;
+        final int mGeneration;
+
+        Result(TaskDescription task, Bitmap thumb, int quality, int generation) {
+            mTask = task;
+            mThumb = thumb;
+            mQuality = quality;
+            mGeneration = generation;
+        }
+    }
+
+    ThumbnailLoader(RecentTasksLoader loader, Handler handler) {
+        mLoader = loader;
+        mHandler = handler;
+        mPending = new SparseArray<TaskDescription>();
+        mInFlight = new SparseIntArray();
+    }
+
+    /**
+     * position in the shown task list that should get its
+     * thumbnail first - usually the middle of the visible range
+     */
+    void setFocus(int position) {
+        mFocus = position;
+    }
+
+    void request(TaskDescription td, int generation) {
+        synchronized (this) {
+            if (generation != mGeneration) {
+                dropPending();
+                mGeneration = generation;
+            }
+            if (mPending.get(td.persistentTaskId) != null) {
+                // already queued - just make sure the current object gets the result
+                mPending.put(td.persistentTaskId, td);
+                return;
+            }
+            if (td.isThumbLoading() && mInFlight.get(td.persistentTaskId,
+                    LoaderExecutor.NO_GENERATION) == generation) {
+                // fetch in flight
+                return;
+            }
+            // a fetch of an older generation is dropped on delivery
+            // so queue it again
+            td.setThumbLoading(true);
+            mPending.put(td.persistentTaskId, td);
+            if (!startDrain()) {
+                return;
+            }
+        }
+        LoaderExecutor.getInstance().execute(new DrainJob(generation));
+    }
+
+    /**
+     * fetch a full resolution snapshot of td - replaces
+     * any other upgrade that has not been started yet
+     */
+    void requestUpgrade(TaskDescription td, int generation) {
+        synchronized (this) {
+            if (generation != mGeneration) {
+                dropPending();
+                mGeneration = generation;
+            }
+            if (td.getThumbQuality() == TaskDescription.THUMB_FULL) {
+                return;
+            }
+            mUpgrade = td;
+            if (!startDrain()) {
+                return;
+            }
+        }
+        LoaderExecutor.getInstance().execute(new DrainJob(generation));
+    }
+
+    // must hold this
+    private boolean startDrain() {
+        if (mDrainRunning) {
+            return false;
+        }
+        mDrainRunning = true;
+        return true;
+    }
+
+    /**
+     * drop all pending requests - running fetches are discarded
+     * by the generation check on delivery
+     */
+    void cancel(int generation) {
+        synchronized (this) {
+            dropPending();
+            mGeneration = generation;
+        }
+        mFocus = 0;
+    }
+
+    // must hold this
+    private void dropPending() {
+        for (int i = 0; i < mPending.size(); i++) {
+            mPending.valueAt(i).setThumbLoading(false);
+        }
+        mPending.clear();
+        mUpgrade = null;
+    }
+
+    // must hold this
+    private boolean hasPending() {
+        return mPending.size() != 0 || mUpgrade != null;
+    }
+
+    // must hold this
+    private TaskDescription takeUpgrade(List<TaskDescription> tasks) {
+        TaskDescription td = mUpgrade;
+        mUpgrade = null;
+        if (td == null || !tasks.contains(td)
+                || td.getThumbQuality() == TaskDescription.THUMB_FULL) {
+            return null;
+        }
+        return td;
+    }
+
+    // must hold this
+    private TaskDescription takeNearest(List<TaskDescription> tasks) {
+        final int focus = mFocus;
+        int bestIndex = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            TaskDescription td = mPending.valueAt(i);
+            int position = tasks.indexOf(td);
+            if (position == -1) {
+                // no longer shown
+                td.setThumbLoading(false);
+                mPending.removeAt(i);
+                if (bestIndex > i) {
+                    bestIndex--;
+                }
+                continue;
+            }
+            int distance = Math.abs(position - focus);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestIndex = i;
+            }
+        }
+        if (bestIndex == -1) {
+            return null;
+        }
+        TaskDescription td = mPending.valueAt(bestIndex);
+        mPending.removeAt(bestIndex);
+        mInFlight.put(td.persistentTaskId, mGeneration);
+        return td;
+    }
+
+    // requests of a newer generation may have been queued
+    // while this job was still running
+    private void finishDrain(int jobGeneration, boolean cancelled) {
+        final int generation;
+        synchronized (this) {
+            if (cancelled && jobGeneration == mGeneration) {
+                // dropped by a full executor queue
+                dropPending();
+            }
+            if (!hasPending()) {
+                mDrainRunning = false;
+                return;
+            }
+            generation = mGeneration;
+        }
+        LoaderExecutor.getInstance().execute(new DrainJob(generation));
+    }
+
+    // must hold this
+    private boolean finishFetch(Result result) {
+        final TaskDescription td = result.mTask;
+        final int id = td.persistentTaskId;
+        if (mInFlight.get(id, LoaderExecutor.NO_GENERATION) != result.mGeneration) {
+            // fetched again for a newer generation
+            return false;
+        }
+        mInFlight.delete(id);
+        return mPending.get(id) == null;
+    }
+
+    private void deliver(final List<Result> batch) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean added = false;
+                for (Result result : batch) {
+                    final boolean current;
+                    boolean done = true;
+                    synchronized (ThumbnailLoader.this) {
+                        current = result.mGeneration == mGeneration;
+                        if (result.mQuality == TaskDescription.THUMB_REDUCED) {
+                            done = finishFetch(result);
+                        }
+                    }
+                    if (result.mQuality == TaskDescription.THUMB_REDUCED && done) {
+                        result.mTask.setThumbLoading(false);
+                    }
+                    if (current && result.mThumb != null) {
+                        result.mTask.setThumb(result.mThumb, result.mQuality, true);
+                        added = true;
+                    }
+                }
+                if (added) {
+                    mLoader.trimCachedThumbs();
+                }
+            }
+        });
+    }
+
+    private class DrainJob extends LoaderExecutor.Job {
+        DrainJob(int generation) {
+            super(LoaderExecutor.LANE_THUMBNAILS, generation);
+        }
+
+        @Override
+        protected void doInBackground() {
+            final List<TaskDescription> tasks = mLoader.getLoadedTasks();
+            List<Result> batch = new ArrayList<Result>(BATCH_SIZE);
+            // the first one is the focused task - do not let it wait for a batch
+            int batchSize = 1;
+            while (true) {
+                TaskDescription td = null;
+                TaskDescription upgrade = null;
+                final int generation;
+                synchronized (ThumbnailLoader.this) {
+                    // may have been queued for a newer generation than this job
+                    generation = mGeneration;
+                    if (!isCancelled()) {
+                        td = takeNearest(tasks);
+                        if (td == null) {
+                            upgrade = takeUpgrade(tasks);
+                        }
+                    }
+                }
+                if (td != null) {
+                    if (DEBUG) {
+                        Log.d(TAG, "load thumb " + td + " " + td.persistentTaskId + " focus=" + mFocus);
+                    }
+                    batch.add(new Result(td, mLoader.getThumbnail(td.persistentTaskId, true),
+                            TaskDescription.THUMB_REDUCED, generation));
+                } else if (upgrade != null) {
+                    if (DEBUG) {
+                        Log.d(TAG, "upgrade thumb " + upgrade + " " + upgrade.persistentTaskId);
+                    }
+                    // deliver the reduced ones first
+                    if (batch.size() != 0) {
+                        deliver(batch);
+                        batch = new ArrayList<Result>(BATCH_SIZE);
+                    }
+                    batch.add(new Result(upgrade, mLoader.getThumbnail(upgrade.persistentTaskId, false),
+                            TaskDescription.THUMB_FULL, generation));
+                } else {
+                    break;
+                }
+                if (batch.size() >= batchSize) {
+                    deliver(batch);
+                    batch = new ArrayList<Result>(BATCH_SIZE);
+                    batchSize = BATCH_SIZE;
+                }
+            }
+            if (batch.size() != 0) {
+                deliver(batch);
+            }
+            finishDrain(getGeneration(), isCancelled());
+        }
+
+        @Override
+        protected void onCancelled() {
+            finishDrain(getGeneration(), true);
+        }
+    }
+}
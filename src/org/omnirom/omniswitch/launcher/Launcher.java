@@ -415,7 +415,7 @@ public class Launcher extends Activity implements IEditFavoriteActivity {
 
                     if (getRecentsManager() != null) {
                         getRecentsManager().clearTasks();
-                        RecentTasksLoader.getInstance(Launcher.this).cancelLoadingTasks();
+                        RecentTasksLoader.getInstance(Launcher.this).cancelLoadingTasksUnlessStandby();
                         RecentTasksLoader.getInstance(Launcher.this).setSwitchManager(getRecentsManager());
                         RecentTasksLoader.getInstance(Launcher.this).preloadTasks();
                     }
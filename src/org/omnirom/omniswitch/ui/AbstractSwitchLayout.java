@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import org.omnirom.omniswitch.LatencyTracker;
 import org.omnirom.omniswitch.PackageManager;
 import org.omnirom.omniswitch.TaskDescription;
 import org.omnirom.omniswitch.Utils;
@@ -56,6 +57,7 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.view.animation.AccelerateInterpolator;
 import android.view.animation.DecelerateInterpolator;
@@ -141,6 +143,25 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
     protected AnimatorSet mShowFavAnim;
     private Typeface mLabelFont;
 
+    // marks the first frame of the overlay after it was added
+    private final ViewTreeObserver.OnDrawListener mFirstDrawListener = new ViewTreeObserver.OnDrawListener() {
+        @Override
+        public void onDraw() {
+            LatencyTracker.markOpen(LatencyTracker.MILESTONE_FIRST_DRAW);
+            // listeners cannot be removed while they are dispatched
+            mHandler.post(mRemoveFirstDrawListener);
+        }
+    };
+
+    private final Runnable mRemoveFirstDrawListener = new Runnable() {
+        @Override
+        public void run() {
+            if (mPopupView != null) {
+                mPopupView.getViewTreeObserver().removeOnDrawListener(mFirstDrawListener);
+            }
+        }
+    };
+
     protected GestureDetector.OnGestureListener mGestureListener = new GestureDetector.OnGestureListener() {
         @Override
         public boolean onSingleTapUp(MotionEvent e) {
@@ -304,9 +325,7 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
             } else {
                 item.setText("");
             }
-            Drawable d = BitmapCache.getInstance(mContext).getPackageIconCached(mContext.getResources(), packageItem, mConfiguration);
-            d.setBounds(0, 0, mConfiguration.mIconSizePx, mConfiguration.mIconSizePx);
-            item.setCompoundDrawables(null, d, null, null);
+            BitmapCache.getInstance(mContext).bindPackageIcon(mContext.getResources(), packageItem, mConfiguration, item);
             return item;
         }
     }
@@ -972,7 +991,7 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
             Log.d(TAG, "preShowDone " + System.currentTimeMillis());
         }
         mPopupView.setFocusableInTouchMode(true);
-        updateRecentsAppsList(false, false);
+        traceUpdateRecentsAppsList(false, false);
 
         mShowing = true;
     }
@@ -980,6 +999,15 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
     protected abstract void updateRamDisplay();
     protected abstract void updateRecentsAppsList(boolean force, boolean refresh);
 
+    private void traceUpdateRecentsAppsList(boolean force, boolean refresh) {
+        LatencyTracker.beginSpan(LatencyTracker.SPAN_UPDATE_LIST);
+        try {
+            updateRecentsAppsList(force, refresh);
+        } finally {
+            LatencyTracker.endSpan(LatencyTracker.SPAN_UPDATE_LIST);
+        }
+    }
+
     protected synchronized void hideDone() {
         if (DEBUG) {
             Log.d(TAG, "hideDone " + System.currentTimeMillis());
@@ -1054,23 +1082,35 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
     }
 
     protected synchronized void preShow() {
-        if (mPopupView == null) {
-            createView();
-        }
-        initView();
+        LatencyTracker.beginSpan(LatencyTracker.SPAN_PRE_SHOW);
+        try {
+            if (mPopupView == null) {
+                createView();
+            }
+            initView();
 
-        if (DEBUG) {
-            Log.d(TAG, "show " + System.currentTimeMillis());
-        }
+            if (DEBUG) {
+                Log.d(TAG, "show " + System.currentTimeMillis());
+            }
 
-        try {
-            mWindowManager.addView(mPopupView,
-                    getParams(mConfiguration.mBackgroundOpacity));
-        } catch (Exception e) {
-            // something went wrong - try to recover here
-            mWindowManager.removeView(mPopupView);
-            mWindowManager.addView(mPopupView,
-                    getParams(mConfiguration.mBackgroundOpacity));
+            mHandler.removeCallbacks(mRemoveFirstDrawListener);
+            mPopupView.getViewTreeObserver().removeOnDrawListener(mFirstDrawListener);
+            mPopupView.getViewTreeObserver().addOnDrawListener(mFirstDrawListener);
+
+            LatencyTracker.beginSpan(LatencyTracker.SPAN_ADD_VIEW);
+            try {
+                mWindowManager.addView(mPopupView,
+                        getParams(mConfiguration.mBackgroundOpacity));
+            } catch (Exception e) {
+                // something went wrong - try to recover here
+                mWindowManager.removeView(mPopupView);
+                mWindowManager.addView(mPopupView,
+                        getParams(mConfiguration.mBackgroundOpacity));
+            } finally {
+                LatencyTracker.endSpan(LatencyTracker.SPAN_ADD_VIEW);
+            }
+        } finally {
+            LatencyTracker.endSpan(LatencyTracker.SPAN_PRE_SHOW);
         }
     }
 
@@ -1134,7 +1174,8 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
 
         mTaskLoadDone = true;
         if (isHandleRecentsUpdate()) {
-            updateRecentsAppsList(true, false);
+            traceUpdateRecentsAppsList(true, false);
+            LatencyTracker.markOpen(LatencyTracker.MILESTONE_LIST_UPDATED);
         }
     }
 
@@ -1145,7 +1186,7 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
         }
 
         mTaskLoadDone = true;
-        updateRecentsAppsList(true, true);
+        traceUpdateRecentsAppsList(true, true);
     }
 
     @Override
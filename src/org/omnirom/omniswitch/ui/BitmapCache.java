@@ -17,32 +17,84 @@
  */
 package org.omnirom.omniswitch.ui;
 
+import org.omnirom.omniswitch.CacheStats;
 import org.omnirom.omniswitch.PackageManager;
 import org.omnirom.omniswitch.SwitchConfiguration;
-import org.omnirom.omniswitch.TaskDescription;
 
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
 import android.content.res.Resources;
+import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.util.ArraySet;
 import android.util.IconDrawableFactory;
 import android.util.LruCache;
 import android.util.Log;
 
-import java.util.Iterator;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Icon cache. Icons live in a hot tier of recently used ones and a
+ * warm tier the hot tier evicts into. Icons found in the warm tier
+ * move back to the hot tier. Each tier has its own budget that is
+ * reduced on memory pressure and restored once no trim was
+ * requested for TRIM_RESTORE_DELAY. Task thumbnails are kept on the
+ * cached tasks of RecentTasksLoader.
+ */
 public class BitmapCache {
     private static final String TAG = "OmniSwitch:BitmapCache";
     private static final boolean DEBUG = false;
+    private static final long TRIM_RESTORE_DELAY = 60000;
+
+    // percent of the full budget of hot and warm tier per trim step
+    private static final int[] TRIM_NONE = { 100, 100 };
+    private static final int[] TRIM_RUNNING_MODERATE = { 100, 50 };
+    private static final int[] TRIM_RUNNING_LOW = { 100, 25 };
+    private static final int[] TRIM_RUNNING_CRITICAL = { 50, 0 };
+    private static final int[] TRIM_BACKGROUND = { 100, 50 };
+    private static final int[] TRIM_MODERATE = { 50, 0 };
+    private static final int[] TRIM_COMPLETE = { 0, 0 };
+
     private static BitmapCache sInstance;
     private Context mContext;
-    private LruCache<String, Drawable> mMemoryCache;
-    private HashMap<String, Drawable> mThumbnailMap;
+    // sizes in kilobytes
+    private final int mHotBudget;
+    private final int mWarmBudget;
+    private LruCache<IconCacheKey, Drawable> mHotCache;
+    private LruCache<IconCacheKey, Drawable> mWarmCache;
     private final IconDrawableFactory mDrawableFactory;
+    private final IconLoader mIconLoader;
+    private final IconDiskCache mDiskCache;
+    // created on first use - UI thread only
+    private IconWarmup mWarmup;
+    // shown until the icon is loaded
+    private final Drawable mPlaceholder = new ColorDrawable(Color.TRANSPARENT);
+    // reused for lookups - guarded by itself
+    private final IconCacheKey mProbeKey = new IconCacheKey();
+    // cached icons per package name - guarded by itself
+    private final HashMap<String, PackageEntries> mPackageIndex;
+    // guarded by this
+    private int[] mTrimStep = TRIM_NONE;
+    private long mLastTrimTime;
+    private final CacheStats mIconStats = new CacheStats("icons");
+
+    private static class PackageEntries {
+        final ArraySet<IconCacheKey> icons = new ArraySet<IconCacheKey>();
+
+        boolean isEmpty() {
+            return icons.isEmpty();
+        }
+    }
 
     public static BitmapCache getInstance(Context context) {
         if (sInstance == null){
@@ -55,42 +107,184 @@ public class BitmapCache {
         mContext = context;
         final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
 
-        // Use 1/4rd of the available memory for this memory cache.
+        // Use 1/4rd of the available memory for the icons.
         int cacheSize = maxMemory / 4;
+        mHotBudget = cacheSize * 2 / 3;
+        mWarmBudget = cacheSize / 3;
         if (DEBUG) Log.d(TAG, "maxMemory = " + maxMemory +" cacheSize = " + cacheSize);
 
-        mMemoryCache = new LruCache<String, Drawable>(cacheSize) {
+        mPackageIndex = new HashMap<String, PackageEntries>();
+        mWarmCache = new LruCache<IconCacheKey, Drawable>(mWarmBudget) {
+            @Override
+            protected int sizeOf(IconCacheKey key, Drawable bitmap) {
+                return BitmapCache.sizeOf(bitmap);
+            }
             @Override
-            protected int sizeOf(String key, Drawable bitmap) {
-                // The cache size will be measured in kilobytes rather than
-                // number of items.
-                if (bitmap instanceof BitmapDrawable){
-                    return ((BitmapDrawable)bitmap).getBitmap().getByteCount() / 1024;
-                } else {
-                    return 1;
+            protected void entryRemoved(boolean evicted, IconCacheKey key, Drawable oldValue, Drawable newValue){
+                // a removed entry is moved to the hot tier
+                if (evicted) {
+                    mIconStats.evicted();
+                    removeIconFromIndex(key);
                 }
             }
+        };
+        mHotCache = new LruCache<IconCacheKey, Drawable>(mHotBudget) {
             @Override
-            protected void entryRemoved(boolean evicted, String key, Drawable oldValue, Drawable newValue){
+            protected int sizeOf(IconCacheKey key, Drawable bitmap) {
+                return BitmapCache.sizeOf(bitmap);
+            }
+            @Override
+            protected void entryRemoved(boolean evicted, IconCacheKey key, Drawable oldValue, Drawable newValue){
+                if (evicted) {
+                    mWarmCache.put(key, oldValue);
+                }
             }
         };
-        mThumbnailMap = new HashMap<String, Drawable>(25);
         mDrawableFactory = IconDrawableFactory.newInstance(mContext);
+        mIconLoader = new IconLoader(this);
+        mDiskCache = new IconDiskCache(mContext);
+    }
+
+    // The cache size will be measured in kilobytes rather than
+    // number of items.
+    private static int sizeOf(Drawable bitmap) {
+        if (bitmap instanceof BitmapDrawable){
+            return ((BitmapDrawable)bitmap).getBitmap().getByteCount() / 1024;
+        } else {
+            return 1;
+        }
     }
 
     public void clear() {
         if (DEBUG) Log.d(TAG, "clear");
-        mMemoryCache.evictAll();
+        if (mWarmup != null) {
+            mWarmup.cancel();
+        }
+        mHotCache.evictAll();
+        mWarmCache.evictAll();
+        // evicted icons are already dropped from the index by entryRemoved
+        synchronized (mPackageIndex) {
+            Iterator<PackageEntries> nextEntries = mPackageIndex.values().iterator();
+            while (nextEntries.hasNext()) {
+                PackageEntries entries = nextEntries.next();
+                entries.icons.clear();
+                if (entries.isEmpty()) {
+                    nextEntries.remove();
+                }
+            }
+        }
+        IconCacheKey.clearInterned();
+        mDiskCache.clearVersions();
+    }
+
+    /**
+     * shrink the tiers to the budget of this trim level - a
+     * lower level than the current one does not grow them
+     */
+    public void onTrimMemory(int level) {
+        final int[] step;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            step = TRIM_COMPLETE;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            step = TRIM_MODERATE;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            step = TRIM_BACKGROUND;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // just our overlay or settings went away
+            return;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            step = TRIM_RUNNING_CRITICAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            step = TRIM_RUNNING_LOW;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            step = TRIM_RUNNING_MODERATE;
+        } else {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "onTrimMemory " + level);
+        synchronized (this) {
+            mLastTrimTime = SystemClock.uptimeMillis();
+            mTrimStep = minStep(mTrimStep, step);
+            applyTrimStep(mTrimStep);
+        }
+        BitmapPool.getInstance().clear();
+        if (step == TRIM_COMPLETE) {
+            BitmapUtils.clearRasterized();
+        }
     }
 
-    public void clearThumbs() {
-        mThumbnailMap.clear();
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
     }
 
-    private String bitmapHash(Intent intent, int iconSize) {
-        // unique identifier
-        String key = intent.getComponent().flattenToString();
-        return key + "_" + iconSize;
+    private static int[] minStep(int[] current, int[] step) {
+        if (current == TRIM_NONE) {
+            return step;
+        }
+        int[] result = new int[current.length];
+        for (int i = 0; i < current.length; i++) {
+            result[i] = Math.min(current[i], step[i]);
+        }
+        return result;
+    }
+
+    // must hold this
+    private void applyTrimStep(int[] step) {
+        // LruCache does not take a max size of 0
+        mHotCache.resize(Math.max(1, mHotBudget * step[0] / 100));
+        mWarmCache.resize(Math.max(1, mWarmBudget * step[1] / 100));
+    }
+
+    // give back the full budgets some time after the last trim
+    private void maybeRestoreBudgets() {
+        synchronized (this) {
+            if (mTrimStep == TRIM_NONE
+                    || SystemClock.uptimeMillis() - mLastTrimTime < TRIM_RESTORE_DELAY) {
+                return;
+            }
+            if (DEBUG) Log.d(TAG, "restore budgets");
+            mTrimStep = TRIM_NONE;
+            applyTrimStep(mTrimStep);
+        }
+    }
+
+    /**
+     * compose the app icons in background - favorites first, then
+     * the apps of recentPackages and then the rest of the drawer.
+     * UI thread only.
+     */
+    public void warmUpIcons(Resources resources, SwitchConfiguration configuration,
+            Set<String> recentPackages) {
+        PackageManager packageManager = PackageManager.getInstance(mContext);
+        List<PackageManager.PackageItem> allItems = packageManager.getPackageList();
+        List<PackageManager.PackageItem> items = new ArrayList<PackageManager.PackageItem>(allItems.size());
+        Set<ComponentName> added = new HashSet<ComponentName>();
+        for (String intent : configuration.mFavoriteList) {
+            PackageManager.PackageItem item = packageManager.getPackageItem(intent);
+            if (item != null && added.add(item.getIntentRaw().getComponent())) {
+                items.add(item);
+            }
+        }
+        for (PackageManager.PackageItem item : allItems) {
+            ComponentName component = item.getIntentRaw().getComponent();
+            if (recentPackages.contains(component.getPackageName()) && added.add(component)) {
+                items.add(item);
+            }
+        }
+        for (PackageManager.PackageItem item : allItems) {
+            if (added.add(item.getIntentRaw().getComponent())) {
+                items.add(item);
+            }
+        }
+        if (mWarmup == null) {
+            mWarmup = new IconWarmup(this, getIconPackHelper());
+        }
+        mWarmup.start(items, resources, configuration);
+    }
+
+    // more icons would evict the ones just put
+    boolean isHotTierFull() {
+        return mHotCache.size() >= mHotCache.maxSize() * 9 / 10;
     }
 
     private IconPackHelper getIconPackHelper() {
@@ -98,62 +292,176 @@ public class BitmapCache {
     }
 
     public Drawable getPackageIconCached(Resources resources, PackageManager.PackageItem packageItem, SwitchConfiguration configuration) {
-        String key = bitmapHash(packageItem.getIntentRaw(), configuration.mIconSize);
-        Drawable d = getBitmapFromMemCache(key);
-        if (d == null){
-            if (DEBUG) Log.d(TAG, "addToCache = " + key);
-            d = getPackageIconUncached(resources, packageItem, configuration, configuration.mIconSize);
+        final IconCacheKey key;
+        synchronized (mProbeKey) {
+            Drawable d = mHotCache.get(mProbeKey.set(packageItem.getIntentRaw().getComponent(),
+                    configuration.mIconSize));
+            if (d != null) {
+                mIconStats.hit();
+                return d;
+            }
+            key = mProbeKey.copy();
+        }
+        Drawable d = getWarmIcon(key);
+        if (d != null) {
+            mIconStats.hit();
+            return d;
+        }
+        // no disk read on the UI thread - making the icon is cheaper
+        return loadPackageIcon(key, resources, packageItem, configuration, false);
+    }
+
+    /**
+     * bind the cached icon to view - or a placeholder and load
+     * the icon in background if it is not cached. UI thread only.
+     */
+    public void bindPackageIcon(Resources resources, PackageManager.PackageItem packageItem,
+            SwitchConfiguration configuration, PackageTextView view) {
+        Drawable d;
+        IconCacheKey key = null;
+        synchronized (mProbeKey) {
+            d = mHotCache.get(mProbeKey.set(packageItem.getIntentRaw().getComponent(),
+                    configuration.mIconSize));
+            if (d == null) {
+                key = mProbeKey.copy();
+            }
+        }
+        if (d == null) {
+            d = getWarmIcon(key);
+        }
+        if (d != null) {
+            mIconStats.hit();
+        } else {
+            d = mPlaceholder;
+            mIconLoader.request(key, resources, packageItem, configuration, view);
+        }
+        d.setBounds(0, 0, configuration.mIconSizePx, configuration.mIconSizePx);
+        view.setCompoundDrawables(null, d, null, null);
+    }
+
+    // move a warm icon back to the hot tier
+    private Drawable getWarmIcon(IconCacheKey key) {
+        Drawable d = mWarmCache.remove(key);
+        if (d != null) {
+            mHotCache.put(key, d);
+        }
+        return d;
+    }
+
+    // create and cache the icon for key - readDisk only off the UI thread
+    Drawable loadPackageIcon(IconCacheKey key, Resources resources,
+            PackageManager.PackageItem packageItem, SwitchConfiguration configuration,
+            boolean readDisk) {
+        // an earlier request for the same icon may have loaded it
+        Drawable d = mHotCache.get(key);
+        if (d == null) {
+            d = getWarmIcon(key);
+        }
+        if (d != null) {
+            return d;
+        }
+        if (DEBUG) Log.d(TAG, "addToCache = " + key);
+        mIconStats.miss();
+        final long start = CacheStats.now();
+        maybeRestoreBudgets();
+        // an icon made while a pack is loading or replaced is only shown
+        // and not cached - it is loaded again once the pack is published
+        final boolean packReady = getIconPackHelper().isReady();
+        final int packGeneration = getIconPackHelper().getPackGeneration();
+        final String iconPack = getIconPackHelper().getLoadedIconPackName();
+        d = packReady && readDisk
+                ? mDiskCache.get(resources, key, configuration.mDensity, iconPack) : null;
+        if (d == null) {
+            d = getPackageIconUncached(resources, packageItem, configuration, key.getSize());
             d = mDrawableFactory.getShadowedIcon(d);
+            if (packReady && packGeneration == getIconPackHelper().getPackGeneration()) {
+                mDiskCache.put(key, configuration.mDensity, iconPack, d, configuration.mIconSizePx);
+            }
+        }
+        if (packReady && packGeneration == getIconPackHelper().getPackGeneration()) {
             addBitmapToMemoryCache(key, d);
         }
+        mIconStats.loaded(start);
         return d;
     }
 
     public Drawable getPackageIconUncached(Resources resources, PackageManager.PackageItem packageItem, SwitchConfiguration configuration, int iconSize) {
         Drawable icon = PackageManager.getInstance(mContext).getPackageIcon(packageItem);
-        if (getIconPackHelper().isIconPackLoaded() && (getIconPackHelper()
+        final IconPackHelper.IconPack iconPack = getIconPackHelper().getIconPack();
+        if (iconPack != null && (iconPack
                 .getResourceIdForActivityIcon(packageItem.getActivityInfo()) == 0)) {
             icon = BitmapUtils.compose(resources,
-                    icon, mContext, getIconPackHelper().getIconBackFor(packageItem.getTitle()),
-                    getIconPackHelper().getIconMask(), getIconPackHelper().getIconUpon(),
-                    getIconPackHelper().getIconScale(), iconSize, configuration.mDensity);
+                    icon, mContext, iconPack.getIconBackFor(packageItem.getTitle()),
+                    iconPack.getIconMask(), iconPack.getIconUpon(),
+                    iconPack.getIconScale(), iconSize, configuration.mDensity);
         }
         return icon;
     }
 
-    public void addBitmapToMemoryCache(String key, Drawable bitmap) {
-        mMemoryCache.put(key, bitmap);
+    private void addBitmapToMemoryCache(IconCacheKey key, Drawable bitmap) {
+        // index first - an eviction right after the put must find it
+        synchronized (mPackageIndex) {
+            getPackageEntries(key.getPackageName()).icons.add(key);
+        }
+        mHotCache.put(key, bitmap);
     }
 
-    public Iterator<String> keyIterator() {
-        return mMemoryCache.snapshot().keySet().iterator();
+    // must hold mPackageIndex
+    private PackageEntries getPackageEntries(String packageName) {
+        PackageEntries entries = mPackageIndex.get(packageName);
+        if (entries == null) {
+            entries = new PackageEntries();
+            mPackageIndex.put(packageName, entries);
+        }
+        return entries;
     }
 
-    // remove all entries with this package name
-    public void removeBitmapToMemoryCache(String packageName) {
-        Iterator<String> nextKey = keyIterator();
-        while (nextKey.hasNext()) {
-            String key = nextKey.next();
-            if (key.startsWith(packageName)) {
-                Drawable removed = mMemoryCache.remove(key);
-                if (removed != null) {
-                    if (DEBUG) Log.d(TAG, "removedFromCache = " + key);
+    private void removeIconFromIndex(IconCacheKey key) {
+        synchronized (mPackageIndex) {
+            PackageEntries entries = mPackageIndex.get(key.getPackageName());
+            if (entries != null) {
+                entries.icons.remove(key);
+                if (entries.isEmpty()) {
+                    mPackageIndex.remove(key.getPackageName());
                 }
             }
         }
     }
 
-    public Drawable getBitmapFromMemCache(String key) {
-        return mMemoryCache.get(key);
+    // remove all entries with this package name
+    public void removeBitmapToMemoryCache(String packageName) {
+        mDiskCache.removePackage(packageName);
+        IconCacheKey.removeInterned(packageName);
+        final PackageEntries entries;
+        synchronized (mPackageIndex) {
+            entries = mPackageIndex.remove(packageName);
+        }
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0; i < entries.icons.size(); i++) {
+            IconCacheKey key = entries.icons.valueAt(i);
+            // a hot entry is not moved to the warm tier on remove
+            Drawable removed = mHotCache.remove(key);
+            if (removed == null) {
+                removed = mWarmCache.remove(key);
+            }
+            if (removed != null) {
+                if (DEBUG) Log.d(TAG, "removedFromCache = " + key);
+            }
+        }
     }
 
-    public Drawable getSharedThumbnail(TaskDescription ad) {
-        String key = String.valueOf(ad.getPersistentTaskId());
-        return mThumbnailMap.get(key);
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "BitmapCache: hot=" + mHotCache.size() + "/" + mHotCache.maxSize()
+                + "kB warm=" + mWarmCache.size() + "/" + mWarmCache.maxSize() + "kB");
+        mIconStats.dump(pw, prefix + "  ", (long) (mHotCache.size() + mWarmCache.size()) * 1024);
+        if (mWarmup != null) {
+            mWarmup.dump(pw, prefix + "  ");
+        }
     }
 
-    public void putSharedThumbnail(TaskDescription ad, Drawable thumb) {
-        String key = String.valueOf(ad.getPersistentTaskId());
-        mThumbnailMap.put(key, thumb);
+    public void clearStats() {
+        mIconStats.clear();
     }
 }
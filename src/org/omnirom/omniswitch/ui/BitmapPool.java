@@ -0,0 +1,99 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Scratch ARGB_8888 bitmaps bucketed by their exact size. A bitmap
+ * must only be released once nothing refers to it anymore - never
+ * release one that is shown or put in a cache.
+ */
+class BitmapPool {
+    private static final String TAG = "OmniSwitch:BitmapPool";
+    private static final boolean DEBUG = false;
+    private static final int MAX_PER_SIZE = 4;
+    private static final long MAX_BYTES = 4 * 1024 * 1024;
+
+    private static BitmapPool sInstance;
+
+    // width << 16 | height -> free bitmaps - guarded by this
+    private final SparseArray<ArrayList<Bitmap>> mFree = new SparseArray<ArrayList<Bitmap>>();
+    private long mBytes;
+
+    static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool();
+        }
+        return sInstance;
+    }
+
+    private static int key(int width, int height) {
+        return (width << 16) | (height & 0xffff);
+    }
+
+    /**
+     * a cleared bitmap of this size
+     */
+    Bitmap acquire(int width, int height) {
+        synchronized (this) {
+            ArrayList<Bitmap> free = mFree.get(key(width, height));
+            if (free != null && free.size() != 0) {
+                Bitmap bitmap = free.remove(free.size() - 1);
+                mBytes -= bitmap.getAllocationByteCount();
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+        }
+        if (DEBUG) Log.d(TAG, "create " + width + "x" + height);
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    void release(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        final int size = bitmap.getAllocationByteCount();
+        synchronized (this) {
+            if (mBytes + size > MAX_BYTES) {
+                return;
+            }
+            final int key = key(bitmap.getWidth(), bitmap.getHeight());
+            ArrayList<Bitmap> free = mFree.get(key);
+            if (free == null) {
+                free = new ArrayList<Bitmap>(MAX_PER_SIZE);
+                mFree.put(key, free);
+            }
+            if (free.size() < MAX_PER_SIZE) {
+                free.add(bitmap);
+                mBytes += size;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mFree.clear();
+        mBytes = 0;
+    }
+}
@@ -40,12 +40,45 @@ import android.support.v4.graphics.drawable.RoundedBitmapDrawable;
 import android.support.v4.graphics.drawable.RoundedBitmapDrawableFactory;
 import android.text.TextPaint;
 import android.text.TextUtils;
+import android.util.SparseArray;
+
+import java.util.WeakHashMap;
 
 public class BitmapUtils {
     private static TextPaint sTextPaint;
     private static Paint sLockedAppsPaint;
     private static Paint sDockedAppsPaint;
     private static Paint sDefaultBgPaint;
+    private static final PaintFlagsDrawFilter sDrawFilter = new PaintFlagsDrawFilter(
+            Paint.ANTI_ALIAS_FLAG, Paint.FILTER_BITMAP_FLAG);
+    // icon pack mask, back and upon drawn at a size in px - guarded by itself
+    private static final WeakHashMap<Drawable, SparseArray<Bitmap>> sRasterized
+            = new WeakHashMap<Drawable, SparseArray<Bitmap>>();
+
+    // the drawing state of one thread - icons are composed on several
+    private static class Scratch {
+        final Canvas canvas = new Canvas();
+        final Paint maskPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        final Paint backPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        final Paint shadowPaint = new Paint();
+        final Rect bounds = new Rect();
+        final int[] offsetXY = new int[2];
+
+        Scratch() {
+            canvas.setDrawFilter(sDrawFilter);
+            maskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+            backPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OVER));
+            shadowPaint.setColor(Color.BLACK);
+            shadowPaint.setMaskFilter(new BlurMaskFilter(5, BlurMaskFilter.Blur.OUTER));
+        }
+    }
+
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
 
     public static TextPaint getLabelTextPaint(Resources resources) {
         if (sTextPaint == null) {
@@ -88,15 +121,14 @@ public class BitmapUtils {
             int iconSize, int borderSize, float density) {
         int size = Math.round(iconSize * density);
         int border = Math.round(borderSize * density);
-        final Canvas canvas = new Canvas();
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+        final Canvas canvas = sScratch.get().canvas;
 
         Bitmap bmResult = Bitmap.createBitmap(size + border, size + border,
                 Bitmap.Config.ARGB_8888);
         canvas.setBitmap(bmResult);
         image.setBounds(border / 2, border / 2, size, size);
         image.draw(canvas);
+        canvas.setBitmap(null);
         return new BitmapDrawable(resources, bmResult);
     }
 
@@ -112,31 +144,27 @@ public class BitmapUtils {
     }
 
     public static BitmapDrawable shadow(Resources resources, Drawable image) {
-        final Canvas canvas = new Canvas();
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+        final Scratch scratch = sScratch.get();
+        final Canvas canvas = scratch.canvas;
         final int imageWidth = image.getIntrinsicWidth();
         final int imageHeight = image.getIntrinsicHeight();
-        final Bitmap b = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.ARGB_8888);
+        final BitmapPool pool = BitmapPool.getInstance();
+        final Bitmap b = pool.acquire(imageWidth, imageHeight);
         canvas.setBitmap(b);
         image.setBounds(0, 0, imageWidth, imageHeight);
         image.draw(canvas);
 
-        BlurMaskFilter blurFilter = new BlurMaskFilter(5,
-                BlurMaskFilter.Blur.OUTER);
-        Paint shadowPaint = new Paint();
-        shadowPaint.setColor(Color.BLACK);
-        shadowPaint.setMaskFilter(blurFilter);
-
-        int[] offsetXY = new int[2];
-        Bitmap b2 = b.extractAlpha(shadowPaint, offsetXY);
+        Bitmap b2 = b.extractAlpha(scratch.shadowPaint, scratch.offsetXY);
 
         Bitmap bmResult = Bitmap.createBitmap(b.getWidth(), b.getHeight(),
                 Bitmap.Config.ARGB_8888);
 
         canvas.setBitmap(bmResult);
-        canvas.drawBitmap(b2, offsetXY[0], offsetXY[1], null);
+        canvas.drawBitmap(b2, scratch.offsetXY[0], scratch.offsetXY[1], null);
         canvas.drawBitmap(b, 0, 0, null);
+        canvas.setBitmap(null);
+        b2.recycle();
+        pool.release(b);
 
         return new BitmapDrawable(resources, bmResult);
     }
@@ -145,12 +173,16 @@ public class BitmapUtils {
         return context.getResources().getDrawable(android.R.drawable.sym_def_app_icon);
     }
 
+    /**
+     * The icon pack parts are drawn from bitmaps rasterized once per
+     * size and never changed - they are shared by all threads. Only the
+     * returned bitmap is allocated.
+     */
     public static Drawable compose(Resources resources, Drawable icon, Context context, Drawable iconBack,
             Drawable iconMask, Drawable iconUpon, float scale, int iconSize, float density) {
         int size = Math.round(iconSize * density);
-        final Canvas canvas = new Canvas();
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+        final Scratch scratch = sScratch.get();
+        final Canvas canvas = scratch.canvas;
 
         int width = size;
         int height = size;
@@ -164,33 +196,57 @@ public class BitmapUtils {
                 Bitmap.Config.ARGB_8888);
         canvas.setBitmap(bitmap);
 
-        Rect oldBounds = new Rect();
+        final Rect oldBounds = scratch.bounds;
         oldBounds.set(icon.getBounds());
         icon.setBounds(0, 0, width, height);
         canvas.save();
         canvas.scale(scale, scale, width / 2, height/2);
         icon.draw(canvas);
         canvas.restore();
+        icon.setBounds(oldBounds);
         if (iconMask != null) {
-            iconMask.setBounds(icon.getBounds());
-            BitmapDrawable  b = getBitmapDrawable(resources, iconMask);
-            b.getPaint().setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
-            b.draw(canvas);
+            canvas.drawBitmap(getRasterized(iconMask, size), 0, 0, scratch.maskPaint);
         }
         if (iconBack != null) {
-            iconBack.setBounds(icon.getBounds());
-            BitmapDrawable  b = getBitmapDrawable(resources, iconBack);
-            b.getPaint().setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OVER));
-            b.draw(canvas);
+            canvas.drawBitmap(getRasterized(iconBack, size), 0, 0, scratch.backPaint);
         }
         if (iconUpon != null) {
-            iconUpon.setBounds(icon.getBounds());
-            iconUpon.draw(canvas);
+            canvas.drawBitmap(getRasterized(iconUpon, size), 0, 0, null);
         }
-        icon.setBounds(oldBounds);
+        canvas.setBitmap(null);
         return new BitmapDrawable(resources, bitmap);
     }
 
+    // d drawn into a size x size bitmap - cached for the lifetime of d
+    private static Bitmap getRasterized(Drawable d, int size) {
+        synchronized (sRasterized) {
+            SparseArray<Bitmap> sizes = sRasterized.get(d);
+            if (sizes == null) {
+                sizes = new SparseArray<Bitmap>(1);
+                sRasterized.put(d, sizes);
+            }
+            Bitmap bitmap = sizes.get(size);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                // not the scratch canvas - the caller draws on that
+                final Canvas canvas = new Canvas(bitmap);
+                canvas.setDrawFilter(sDrawFilter);
+                final Rect oldBounds = d.copyBounds();
+                d.setBounds(0, 0, size, size);
+                d.draw(canvas);
+                d.setBounds(oldBounds);
+                sizes.put(size, bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    public static void clearRasterized() {
+        synchronized (sRasterized) {
+            sRasterized.clear();
+        }
+    }
+
     public static Drawable memImage(Resources resources, int size,
             float density, boolean horizontal, String line1, String line2,
             SwitchConfiguration configuration, int tintColor) {
@@ -198,8 +254,7 @@ public class BitmapUtils {
         final int borderPx = Math.round(5 * density);
         final int width = size;
         final int height = (int) (size * 2);
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+        canvas.setDrawFilter(sDrawFilter);
         final Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         canvas.setBitmap(bmp);
 
@@ -235,15 +290,14 @@ public class BitmapUtils {
         if (image instanceof BitmapDrawable) {
             return (BitmapDrawable) image;
         }
-        final Canvas canvas = new Canvas();
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+        final Canvas canvas = sScratch.get().canvas;
 
         Bitmap bmResult = Bitmap.createBitmap(image.getIntrinsicWidth(), image.getIntrinsicHeight(),
                 Bitmap.Config.ARGB_8888);
         canvas.setBitmap(bmResult);
-        image.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        image.setBounds(0, 0, bmResult.getWidth(), bmResult.getHeight());
         image.draw(canvas);
+        canvas.setBitmap(null);
         return new BitmapDrawable(resources, bmResult);
     }
 
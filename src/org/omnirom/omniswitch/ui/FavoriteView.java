@@ -23,7 +23,6 @@ import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.Point;
 import android.graphics.Typeface;
-import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
@@ -91,9 +90,7 @@ public class FavoriteView extends GridView {
             } else {
                 item.setText("");
             }
-            Drawable d = BitmapCache.getInstance(mContext).getPackageIconCached(getResources(), packageItem, mConfiguration);
-            d.setBounds(0, 0, mConfiguration.mIconSizePx, mConfiguration.mIconSizePx);
-            item.setCompoundDrawables(null, d, null, null);
+            BitmapCache.getInstance(mContext).bindPackageIcon(getResources(), packageItem, mConfiguration, item);
             return item;
         }
     }
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import android.content.ComponentName;
+
+/**
+ * Icon cache key of a component and icon size. The hash is
+ * computed once. Stored keys hold an interned ComponentName so
+ * that a probe with the same instance matches without comparing
+ * strings. A probe key can be reused for lookups with set.
+ * Interning is only a shortcut for equals - the interned names
+ * can be dropped at any time.
+ */
+final class IconCacheKey {
+    // more than the launchable components of most devices
+    private static final int MAX_INTERNED = 1024;
+
+    // guarded by itself
+    private static final HashMap<ComponentName, ComponentName> sInterned =
+            new HashMap<ComponentName, ComponentName>();
+
+    private ComponentName mComponent;
+    private int mSize;
+    private int mHash;
+
+    IconCacheKey() {
+    }
+
+    private IconCacheKey(ComponentName component, int size, int hash) {
+        mComponent = component;
+        mSize = size;
+        mHash = hash;
+    }
+
+    IconCacheKey set(ComponentName component, int size) {
+        mComponent = component;
+        mSize = size;
+        mHash = 31 * component.hashCode() + size;
+        return this;
+    }
+
+    /**
+     * immutable copy of a probe key to store in a cache
+     */
+    IconCacheKey copy() {
+        return new IconCacheKey(intern(mComponent), mSize, mHash);
+    }
+
+    ComponentName getComponent() {
+        return mComponent;
+    }
+
+    String getPackageName() {
+        return mComponent.getPackageName();
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    static ComponentName intern(ComponentName component) {
+        synchronized (sInterned) {
+            ComponentName interned = sInterned.get(component);
+            if (interned == null) {
+                if (sInterned.size() >= MAX_INTERNED) {
+                    sInterned.clear();
+                }
+                sInterned.put(component, component);
+                interned = component;
+            }
+            return interned;
+        }
+    }
+
+    static void removeInterned(String packageName) {
+        synchronized (sInterned) {
+            Iterator<ComponentName> nextComponent = sInterned.keySet().iterator();
+            while (nextComponent.hasNext()) {
+                if (nextComponent.next().getPackageName().equals(packageName)) {
+                    nextComponent.remove();
+                }
+            }
+        }
+    }
+
+    static void clearInterned() {
+        synchronized (sInterned) {
+            sInterned.clear();
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IconCacheKey)) {
+            return false;
+        }
+        IconCacheKey other = (IconCacheKey) o;
+        return mHash == other.mHash && mSize == other.mSize
+                && (mComponent == other.mComponent || mComponent.equals(other.mComponent));
+    }
+
+    @Override
+    public String toString() {
+        return mComponent.flattenToShortString() + "_" + mSize;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Composed and shadowed app icons stored as PNG files in the cache
+ * dir. The file name is derived from everything the icon depends
+ * on - component, size, density, icon pack and its version and the
+ * last update of the app - so entries never need to be invalidated.
+ * Entries of removed packages are deleted, unused ones are pruned
+ * oldest first once the cache grows over MAX_SIZE. All file changes
+ * run in order on a single background thread of its own so they
+ * never compete with the loader lanes.
+ */
+class IconDiskCache {
+    private static final String TAG = "OmniSwitch:IconDiskCache";
+    private static final boolean DEBUG = false;
+    // bump if the icon composition changes
+    private static final int VERSION = 1;
+    private static final String DIR_NAME = "icons";
+    private static final long MAX_SIZE = 8 * 1024 * 1024;
+    // writes beyond this are skipped - deletes are always queued
+    private static final int MAX_PENDING_WRITES = 128;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Context mContext;
+    private final File mDir;
+    // package name -> version string - guarded by itself
+    private final HashMap<String, String> mPackageVersions = new HashMap<String, String>();
+    private final ThreadPoolExecutor mWriter;
+    private final AtomicInteger mPendingWrites = new AtomicInteger();
+    // writer thread only
+    private boolean mPruned;
+
+    IconDiskCache(Context context) {
+        mContext = context;
+        mDir = new File(new File(context.getCacheDir(), DIR_NAME), "v" + VERSION);
+        mWriter = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                        r.run();
+                    }
+                }, "OmniSwitchIconDisk");
+            }
+        });
+        mWriter.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * the cached icon - null if none. Reads the file so
+     * never call it on the UI thread.
+     */
+    Drawable get(Resources resources, IconCacheKey key, float density, String iconPack) {
+        File file = getFile(key, density, iconPack);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            file.delete();
+            return null;
+        }
+        // keep recently used ones on prune
+        file.setLastModified(System.currentTimeMillis());
+        if (DEBUG) Log.d(TAG, "hit " + file.getName());
+        return new BitmapDrawable(resources, bitmap);
+    }
+
+    /**
+     * write the icon in background
+     */
+    void put(final IconCacheKey key, final float density, final String iconPack,
+            final Drawable icon, final int iconSizePx) {
+        if (mPendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+            // it is just a cache - the icon is written next time
+            mPendingWrites.decrementAndGet();
+            if (DEBUG) Log.d(TAG, "skip " + key);
+            return;
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(key, density, iconPack, icon, iconSizePx);
+                    pruneOnce();
+                } finally {
+                    mPendingWrites.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    void removePackage(final String packageName) {
+        synchronized (mPackageVersions) {
+            mPackageVersions.remove(packageName);
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                final String prefix = packageName + "_";
+                for (File file : files) {
+                    if (file.getName().startsWith(prefix)) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    // versions may have changed
+    void clearVersions() {
+        synchronized (mPackageVersions) {
+            mPackageVersions.clear();
+        }
+    }
+
+    private void write(IconCacheKey key, float density, String iconPack, Drawable icon, int iconSizePx) {
+        File file = getFile(key, density, iconPack);
+        if (file == null || file.exists()) {
+            return;
+        }
+        Bitmap bitmap;
+        // a scratch bitmap from the pool - given back once written
+        Bitmap pooled = null;
+        if (icon instanceof BitmapDrawable && ((BitmapDrawable) icon).getBitmap() != null) {
+            bitmap = ((BitmapDrawable) icon).getBitmap();
+        } else {
+            pooled = BitmapPool.getInstance().acquire(iconSizePx, iconSizePx);
+            bitmap = pooled;
+            Canvas canvas = new Canvas(bitmap);
+            Drawable d = icon.getConstantState() != null
+                    ? icon.getConstantState().newDrawable() : icon;
+            d.setBounds(0, 0, iconSizePx, iconSizePx);
+            d.draw(canvas);
+            canvas.setBitmap(null);
+        }
+        try {
+            writeBitmap(file, bitmap);
+        } finally {
+            if (pooled != null) {
+                BitmapPool.getInstance().release(pooled);
+            }
+        }
+    }
+
+    private void writeBitmap(File file, Bitmap bitmap) {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            return;
+        }
+        // write to a temp file so a reader never sees a partial one
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+            if (DEBUG) Log.d(TAG, "wrote " + file.getName());
+        } catch (IOException e) {
+            Log.w(TAG, "write " + file.getName(), e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private void pruneOnce() {
+        if (mPruned) {
+            return;
+        }
+        mPruned = true;
+        // drop old versions
+        File[] dirs = mDir.getParentFile().listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (!dir.equals(mDir)) {
+                    deleteDir(dir);
+                }
+            }
+        }
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_SIZE) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (size <= MAX_SIZE * 3 / 4) {
+                break;
+            }
+            size -= file.length();
+            file.delete();
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private File getFile(IconCacheKey key, float density, String iconPack) {
+        final String packageName = key.getPackageName();
+        final String appVersion = getPackageVersion(packageName);
+        if (appVersion == null) {
+            return null;
+        }
+        String iconPackVersion = "";
+        if (iconPack != null) {
+            iconPackVersion = getPackageVersion(iconPack);
+            if (iconPackVersion == null) {
+                return null;
+            }
+        }
+        final String name = key.getComponent().flattenToShortString() + "|" + key.getSize()
+                + "|" + density + "|" + iconPack + "|" + iconPackVersion + "|" + appVersion;
+        return new File(mDir, packageName + "_" + sha1(name) + ".png");
+    }
+
+    private String getPackageVersion(String packageName) {
+        synchronized (mPackageVersions) {
+            String version = mPackageVersions.get(packageName);
+            if (version != null) {
+                return version;
+            }
+        }
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(packageName, 0);
+            String version = info.getLongVersionCode() + "-" + info.lastUpdateTime;
+            synchronized (mPackageVersions) {
+                mPackageVersions.put(packageName, version);
+            }
+            return version;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(value.getBytes());
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.omnirom.omniswitch.LoaderExecutor;
+import org.omnirom.omniswitch.PackageManager;
+import org.omnirom.omniswitch.SwitchConfiguration;
+
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Loads app icons missing in BitmapCache for PackageTextView items.
+ * Requests are collapsed per icon key and served newest first by a
+ * single drain job on the icon lane - after a fling the items bound
+ * last are the visible ones. A loaded icon is only bound to a view
+ * that still shows the intent it was requested for.
+ */
+class IconLoader {
+    private static final String TAG = "OmniSwitch:IconLoader";
+    private static final boolean DEBUG = false;
+
+    private final BitmapCache mCache;
+    private final Handler mHandler;
+    // guarded by this
+    private final HashMap<IconCacheKey, Request> mPending;
+    private final ArrayList<Request> mOrder;
+    private boolean mDrainRunning;
+
+    private static class Request {
+        final IconCacheKey key;
+        final Resources resources;
+        final PackageManager.PackageItem packageItem;
+        final SwitchConfiguration configuration;
+        // views waiting for this icon and the intent they showed
+        final List<PackageTextView> views = new ArrayList<PackageTextView>(1);
+        final List<String> intents = new ArrayList<String>(1);
+
+        Request(IconCacheKey _key, Resources _resources, PackageManager.PackageItem _packageItem,
+                SwitchConfiguration _configuration) {
+            key = _key;
+            resources = _resources;
+            packageItem = _packageItem;
+            configuration = _configuration;
+        }
+    }
+
+    IconLoader(BitmapCache cache) {
+        mCache = cache;
+        mHandler = new Handler(Looper.getMainLooper());
+        mPending = new HashMap<IconCacheKey, Request>();
+        mOrder = new ArrayList<Request>();
+    }
+
+    // UI thread only
+    void request(IconCacheKey key, Resources resources, PackageManager.PackageItem packageItem,
+            SwitchConfiguration configuration, PackageTextView view) {
+        synchronized (this) {
+            Request request = mPending.get(key);
+            if (request == null) {
+                request = new Request(key, resources, packageItem, configuration);
+                mPending.put(key, request);
+            } else {
+                // move to the front
+                mOrder.remove(request);
+            }
+            mOrder.add(request);
+            request.views.add(view);
+            request.intents.add(view.getIntent());
+            if (mDrainRunning) {
+                return;
+            }
+            mDrainRunning = true;
+        }
+        LoaderExecutor.getInstance().execute(new DrainJob());
+    }
+
+    private Request takeNewest() {
+        synchronized (this) {
+            if (mOrder.size() == 0) {
+                mDrainRunning = false;
+                return null;
+            }
+            Request request = mOrder.remove(mOrder.size() - 1);
+            mPending.remove(request.key);
+            return request;
+        }
+    }
+
+    private void deliver(final Request request, final Drawable icon) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < request.views.size(); i++) {
+                    PackageTextView view = request.views.get(i);
+                    // recycled for another item meanwhile
+                    if (!request.intents.get(i).equals(view.getIntent())) {
+                        continue;
+                    }
+                    icon.setBounds(0, 0, request.configuration.mIconSizePx,
+                            request.configuration.mIconSizePx);
+                    view.setCompoundDrawables(null, icon, null, null);
+                }
+            }
+        });
+    }
+
+    private class DrainJob extends LoaderExecutor.Job {
+        DrainJob() {
+            super(LoaderExecutor.LANE_ICONS, LoaderExecutor.NO_GENERATION);
+        }
+
+        @Override
+        protected void doInBackground() {
+            Request request;
+            while ((request = takeNewest()) != null) {
+                if (DEBUG) {
+                    Log.d(TAG, "load icon " + request.key);
+                }
+                Drawable icon = mCache.loadPackageIcon(request.key, request.resources,
+                        request.packageItem, request.configuration, true);
+                deliver(request, icon);
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            // dropped by a full executor queue - the views keep their placeholder
+            // until they are bound again
+            synchronized (IconLoader.this) {
+                mPending.clear();
+                mOrder.clear();
+                mDrainRunning = false;
+            }
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package org.omnirom.omniswitch.ui;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.omnirom.omniswitch.CacheStats;
+import org.omnirom.omniswitch.LoaderExecutor;
 import org.omnirom.omniswitch.PackageManager;
 import org.omnirom.omniswitch.R;
 import org.omnirom.omniswitch.SettingsActivity;
@@ -25,10 +32,16 @@ import android.content.DialogInterface.OnDismissListener;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageInfo;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -45,16 +58,20 @@ import android.widget.ListView;
 import android.util.Log;
 
 public class IconPackHelper implements DialogInterface.OnDismissListener {
+    private static final String TAG = "OmniSwitch:IconPackHelper";
+    private static final boolean DEBUG = false;
     static final String ICON_MASK_TAG = "iconmask";
     static final String ICON_BACK_TAG = "iconback";
     static final String ICON_UPON_TAG = "iconupon";
     static final String ICON_SCALE_TAG = "scale";
+    private static final String INDEX_DIR = "iconpacks";
 
     public final static String[] sSupportedActions = new String[] {
         "org.adw.launcher.THEMES",
         "com.gau.go.launcherex.theme",
         "com.dlto.atom.launcher.THEME",
-        "com.novalauncher.THEME"
+        "com.novalauncher.THEME",
+        "org.adw.launcher.icons.ACTION_PICK_ICON"
     };
 
     public static final String[] sSupportedCategories = new String[] {
@@ -63,22 +80,174 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         "com.teslacoilsw.launcher.THEME"
     };
 
-    // Holds package/class -> drawable
-    private Map<String, String> mIconPackResources;
     private Context mContext;
-    private String mLoadedIconPackName;
-    private Resources mLoadedIconPackResource;
-    private Drawable mIconUpon, mIconMask;
-    private List<Drawable> mIconBackList;
-    private List<String> mIconBackStrings;
-    private float mIconScale;
+    // the loaded pack - replaced as a whole once a load is done
+    private volatile IconPack mPack;
+    // bumped on every publish of a pack
+    private volatile int mPackGeneration;
     private String mCurrentIconPack = "";
-    private boolean mLoading;
     private AlertDialog mDialog;
     private ListView mListView;
+    private Handler mHandler;
+    // guarded by this
+    private int mLoadGeneration;
+    private CountDownLatch mReadyLatch = new CountDownLatch(0);
+    // UI thread only
+    private final List<OnIconPackReadyListener> mReadyListeners = new ArrayList<OnIconPackReadyListener>();
+    // picker candidates sorted by label - kept until packages or
+    // the locale change. UI thread only
+    private List<IconPackInfo> mSupportedPackages;
+    private int mSupportedPackagesSequence;
+    private Locale mSupportedPackagesLocale;
+
+    private final CacheStats mLookupStats = new CacheStats("icon pack lookups");
 
     private static IconPackHelper sInstance;
 
+    public interface OnIconPackReadyListener {
+        // called on the UI thread after a pack has been loaded or unloaded
+        void onIconPackReady();
+    }
+
+    /**
+     * A loaded icon pack. Never changes after it has been published
+     * so it can be used from any thread.
+     */
+    public static final class IconPack {
+        private final String mPackageName;
+        private final Resources mResources;
+        // Holds package/class -> drawable
+        private final IconPackIndex mIndex;
+        private final Drawable mIconMask;
+        private final Drawable mIconUpon;
+        private final List<Drawable> mIconBackList;
+        private final float mIconScale;
+        private final CacheStats mLookupStats;
+        // resource id per value slot of mIndex - UNRESOLVED until first used
+        private final int[] mSlotIds;
+        private static final int UNRESOLVED = -1;
+
+        private IconPack(String packageName, Resources resources, IconPackIndex index,
+                CacheStats lookupStats) {
+            mPackageName = packageName;
+            mResources = resources;
+            mIndex = index;
+            mLookupStats = lookupStats;
+            mSlotIds = new int[index.getSlotCount()];
+            Arrays.fill(mSlotIds, UNRESOLVED);
+            mIconMask = getDrawableForName(ICON_MASK_TAG);
+            mIconUpon = getDrawableForName(ICON_UPON_TAG);
+            List<Drawable> backs = new ArrayList<Drawable>();
+            for (String backIconString : index.getIconBacks()) {
+                Drawable backIcon = getDrawableWithName(backIconString);
+                if (backIcon != null) {
+                    backs.add(backIcon);
+                }
+            }
+            mIconBackList = Collections.unmodifiableList(backs);
+            float iconScale = 1f;
+            String scale = index.get(ICON_SCALE_TAG);
+            if (scale != null) {
+                try {
+                    iconScale = Float.valueOf(scale);
+                } catch (NumberFormatException e) {
+                }
+            }
+            mIconScale = iconScale;
+        }
+
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        public Resources getResources() {
+            return mResources;
+        }
+
+        public List<Drawable> getIconBackList() {
+            return mIconBackList;
+        }
+
+        public Drawable getIconBackFor(CharSequence tag) {
+            if (mIconBackList.size() == 0) {
+                return null;
+            }
+            if (mIconBackList.size() == 1) {
+                return mIconBackList.get(0);
+            }
+            return mIconBackList.get((tag.hashCode() & 0x7fffffff) % mIconBackList.size());
+        }
+
+        public Drawable getIconMask() {
+            return mIconMask;
+        }
+
+        public Drawable getIconUpon() {
+            return mIconUpon;
+        }
+
+        public float getIconScale() {
+            return mIconScale;
+        }
+
+        int size() {
+            return mIndex.size();
+        }
+
+        public int getResourceIdForActivityIcon(ActivityInfo info) {
+            final long start = CacheStats.now();
+            int index = mIndex.indexOf(info.packageName, info.name);
+            if (index < 0) {
+                // Icon pack doesn't have an icon for the activity, fallback to package icon
+                index = mIndex.indexOf(info.packageName, null);
+                if (index < 0) {
+                    mLookupStats.miss();
+                    mLookupStats.loaded(start);
+                    return 0;
+                }
+            }
+            int resId = getResourceIdForSlot(mIndex.getSlot(index));
+            if (resId != 0) {
+                mLookupStats.hit();
+            } else {
+                mLookupStats.miss();
+            }
+            mLookupStats.loaded(start);
+            return resId;
+        }
+
+        private Drawable getDrawableForName(String name) {
+            String item = mIndex.get(name);
+            if (!TextUtils.isEmpty(item)) {
+                return getDrawableWithName(item);
+            }
+            return null;
+        }
+
+        private Drawable getDrawableWithName(String name) {
+            int id = getResourceIdForDrawable(name);
+            if (id != 0) {
+                return mResources.getDrawable(id);
+            }
+            return null;
+        }
+
+        // getIdentifier is slow so every drawable name is resolved only once.
+        // Racing threads resolve the same id so the unlocked write is harmless.
+        private int getResourceIdForSlot(int slot) {
+            int resId = mSlotIds[slot];
+            if (resId == UNRESOLVED) {
+                resId = getResourceIdForDrawable(mIndex.getSlotValue(slot));
+                mSlotIds[slot] = resId;
+            }
+            return resId;
+        }
+
+        private int getResourceIdForDrawable(String resource) {
+            return mResources.getIdentifier(resource, "drawable", mPackageName);
+        }
+    }
+
     public static IconPackHelper getInstance(Context context) {
         if (sInstance == null){
             sInstance = new IconPackHelper();
@@ -89,95 +258,105 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         return sInstance;
     }
 
+    /**
+     * the loaded pack - null if none. Use the returned snapshot for
+     * all lookups of one icon so a pack change in between can not
+     * mix two packs.
+     */
+    public IconPack getIconPack() {
+        return mPack;
+    }
+
     public List<Drawable> getIconBackList() {
-        return mIconBackList;
+        IconPack pack = mPack;
+        return pack != null ? pack.getIconBackList() : Collections.<Drawable>emptyList();
     }
 
     public Drawable getIconBackFor(CharSequence tag) {
-        if (mIconBackList != null && mIconBackList.size() != 0) {
-            if (mIconBackList.size() == 1) {
-                return mIconBackList.get(0);
-            }
-            try {
-                Drawable back = mIconBackList.get((tag.hashCode() & 0x7fffffff) % mIconBackList.size());
-                return back;
-            } catch (ArrayIndexOutOfBoundsException e) {
-                return mIconBackList.get(0);
-            }
-        }
-        return null;
+        IconPack pack = mPack;
+        return pack != null ? pack.getIconBackFor(tag) : null;
     }
 
     public Drawable getIconMask() {
-        return mIconMask;
+        IconPack pack = mPack;
+        return pack != null ? pack.getIconMask() : null;
     }
 
     public Drawable getIconUpon() {
-        return mIconUpon;
+        IconPack pack = mPack;
+        return pack != null ? pack.getIconUpon() : null;
     }
 
     public float getIconScale() {
-        return mIconScale;
+        IconPack pack = mPack;
+        return pack != null ? pack.getIconScale() : 1f;
     }
 
     private IconPackHelper() {
-        mIconPackResources = new HashMap<String, String>();
-        mIconBackList = new ArrayList<Drawable>();
-        mIconBackStrings = new ArrayList<String>();
     }
 
     private void setContext(Context context) {
         mContext = context;
+        mHandler = new Handler(Looper.getMainLooper());
     }
 
-    private Drawable getDrawableForName(String name) {
-        if (isIconPackLoaded()) {
-            String item = mIconPackResources.get(name);
-            if (!TextUtils.isEmpty(item)) {
-                int id = getResourceIdForDrawable(item);
-                if (id != 0) {
-                    return mLoadedIconPackResource.getDrawable(id);
-                }
-            }
-        }
-        return null;
-    }
-
-    private Drawable getDrawableWithName(String name) {
-        if (isIconPackLoaded()) {
-            int id = getResourceIdForDrawable(name);
-            if (id != 0) {
-                return mLoadedIconPackResource.getDrawable(id);
+    /**
+     * the installed icon packs sorted by label - icons are
+     * not loaded. UI thread only.
+     */
+    List<IconPackInfo> getSupportedPackages(Context context) {
+        android.content.pm.PackageManager packageManager = context.getPackageManager();
+        final Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+        if (mSupportedPackages != null && locale.equals(mSupportedPackagesLocale)) {
+            ChangedPackages changed = packageManager.getChangedPackages(mSupportedPackagesSequence);
+            if (changed == null) {
+                return mSupportedPackages;
             }
+            mSupportedPackagesSequence = changed.getSequenceNumber();
+        } else {
+            ChangedPackages changed = packageManager.getChangedPackages(0);
+            mSupportedPackagesSequence = changed != null ? changed.getSequenceNumber() : 0;
         }
-        return null;
-    }
-
-    private Map<String, IconPackInfo> getSupportedPackages(Context context) {
+        final long start = System.currentTimeMillis();
         Intent i = new Intent();
         Map<String, IconPackInfo> packages = new HashMap<String, IconPackInfo>();
-        android.content.pm.PackageManager packageManager = context.getPackageManager();
         for (String action : sSupportedActions) {
             i.setAction(action);
             for (ResolveInfo r : packageManager.queryIntentActivities(i, 0)) {
-                IconPackInfo info = new IconPackInfo(r, packageManager);
-                packages.put(r.activityInfo.packageName, info);
+                if (!packages.containsKey(r.activityInfo.packageName)) {
+                    IconPackInfo info = new IconPackInfo(r, packageManager);
+                    packages.put(r.activityInfo.packageName, info);
+                }
             }
         }
         i = new Intent(Intent.ACTION_MAIN);
         for (String category : sSupportedCategories) {
             i.addCategory(category);
             for (ResolveInfo r : packageManager.queryIntentActivities(i, 0)) {
-                IconPackInfo info = new IconPackInfo(r, packageManager);
-                packages.put(r.activityInfo.packageName, info);
+                if (!packages.containsKey(r.activityInfo.packageName)) {
+                    IconPackInfo info = new IconPackInfo(r, packageManager);
+                    packages.put(r.activityInfo.packageName, info);
+                }
             }
             i.removeCategory(category);
         }
-        return packages;
+        List<IconPackInfo> sortedPackages = new ArrayList<IconPackInfo>(packages.values());
+        Collections.sort(sortedPackages, new Comparator<IconPackInfo>() {
+            @Override
+            public int compare(IconPackInfo lhs, IconPackInfo rhs) {
+                return lhs.label.toString().compareToIgnoreCase(rhs.label.toString());
+            }
+        });
+        mSupportedPackages = Collections.unmodifiableList(sortedPackages);
+        mSupportedPackagesLocale = locale;
+        if (DEBUG) Log.d(TAG, "getSupportedPackages " + sortedPackages.size() + " "
+                + (System.currentTimeMillis() - start) + "ms");
+        return mSupportedPackages;
     }
 
-    private void loadResourcesFromXmlParser(XmlPullParser parser,
-            Map<String, String> iconPackResources) throws XmlPullParserException, IOException {
+    private static void loadResourcesFromXmlParser(XmlPullParser parser,
+            Map<String, String> iconPackResources, List<String> iconBacks)
+            throws XmlPullParserException, IOException {
         int eventType = parser.getEventType();
 
         while (parser.next() != XmlPullParser.END_DOCUMENT) {
@@ -206,12 +385,14 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
 
                 if (!component.contains("/")) {
                     // Package icon reference
-                    iconPackResources.put(component, drawable);
+                    iconPackResources.put(IconPackIndex.normalize(component), drawable);
                 } else {
                     ComponentName componentName = ComponentName.unflattenFromString(component);
                     if (componentName != null) {
-                        iconPackResources.put(componentName.getPackageName(), drawable);
-                        iconPackResources.put(component, drawable);
+                        iconPackResources.put(IconPackIndex.normalize(componentName.getPackageName()),
+                                drawable);
+                        iconPackResources.put(IconPackIndex.componentKey(componentName.getPackageName(),
+                                componentName.getClassName()), drawable);
                     }
                 }
                 continue;
@@ -221,7 +402,7 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
                 String icon = parser.getAttributeValue(null, "img");
                 if (icon == null) {
                     for (int i = 0; i < parser.getAttributeCount(); i++) {
-                        mIconBackStrings.add(parser.getAttributeValue(i));
+                        iconBacks.add(parser.getAttributeValue(i));
                     }
                 }
                 continue;
@@ -252,80 +433,185 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         }
     }
 
-    private boolean loadIconPack() {
-        String packageName = mCurrentIconPack;
-        mIconBackList.clear();
-        mIconBackStrings.clear();
-        if (TextUtils.isEmpty(packageName)){
-            return false;
+    /**
+     * start loading the pack in background - an empty package
+     * name unloads the current one. A load started later wins.
+     */
+    private synchronized void startLoad(final String packageName) {
+        final int generation = ++mLoadGeneration;
+        if (mReadyLatch.getCount() == 0) {
+            mReadyLatch = new CountDownLatch(1);
+        }
+        final CountDownLatch latch = mReadyLatch;
+        if (TextUtils.isEmpty(packageName)) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publish(null, generation, latch, true);
+                }
+            });
+            return;
+        }
+        LoaderExecutor.getInstance().execute(new LoaderExecutor.Job(LoaderExecutor.LANE_ICONS,
+                LoaderExecutor.NO_GENERATION) {
+            @Override
+            protected void doInBackground() {
+                final long start = System.currentTimeMillis();
+                final IconPack pack = loadIconPack(packageName);
+                if (DEBUG) Log.d(TAG, "loaded " + packageName + " = " + (pack != null)
+                        + " " + (System.currentTimeMillis() - start) + "ms");
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        publish(pack, generation, latch, pack != null);
+                    }
+                });
+            }
+
+            @Override
+            protected void onCancelled() {
+                // dropped by a full executor queue - try again
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (IconPackHelper.this) {
+                            if (generation != mLoadGeneration) {
+                                return;
+                            }
+                        }
+                        startLoad(packageName);
+                    }
+                });
+            }
+        });
+    }
+
+    // UI thread
+    private void publish(IconPack pack, int generation, CountDownLatch latch, boolean success) {
+        synchronized (this) {
+            if (generation != mLoadGeneration) {
+                // a newer load is running and will release the latch
+                return;
+            }
+            mPack = pack;
+            mPackGeneration++;
+        }
+        if (!success) {
+            Toast.makeText(mContext, "Invalid IconPack", Toast.LENGTH_SHORT).show();
+        }
+        PackageManager.getInstance(mContext).updatePackageIcons();
+        latch.countDown();
+        for (OnIconPackReadyListener listener : new ArrayList<OnIconPackReadyListener>(mReadyListeners)) {
+            listener.onIconPackReady();
+        }
+    }
+
+    // background thread
+    private IconPack loadIconPack(String packageName) {
+        IconPackIndex index = getIconPackResources(mContext, packageName);
+        if (index == null) {
+            return null;
         }
-        mLoading = true;
-        mIconPackResources = getIconPackResources(mContext, packageName);
         Resources res = null;
         try {
             res = mContext.getPackageManager().getResourcesForApplication(packageName);
         } catch (android.content.pm.PackageManager.NameNotFoundException e) {
             e.printStackTrace();
-            mLoading = false;
-            return false;
-        }
-        mLoadedIconPackResource = res;
-        mLoadedIconPackName = packageName;
-        mIconMask = getDrawableForName(ICON_MASK_TAG);
-        mIconUpon = getDrawableForName(ICON_UPON_TAG);
-        for (int i = 0; i < mIconBackStrings.size(); i++) {
-            String backIconString = mIconBackStrings.get(i);
-            Drawable backIcon = getDrawableWithName(backIconString);
-            if (backIcon != null) {
-                mIconBackList.add(backIcon);
-            }
-        }
-        String scale = mIconPackResources.get(ICON_SCALE_TAG);
-        if (scale != null) {
-            try {
-                mIconScale = Float.valueOf(scale);
-            } catch (NumberFormatException e) {
-            }
+            return null;
         }
-        mLoading = false;
-        return true;
+        return new IconPack(packageName, res, index, mLookupStats);
     }
 
-    private Map<String, String> getIconPackResources(Context context, String packageName) {
+    private static IconPackIndex getIconPackResources(Context context, String packageName) {
         if (TextUtils.isEmpty(packageName)) {
             return null;
         }
+        PackageInfo packageInfo = null;
+        try {
+            packageInfo = context.getPackageManager().getPackageInfo(packageName, 0);
+        } catch (android.content.pm.PackageManager.NameNotFoundException e) {
+        }
+        final File indexFile = new File(new File(context.getCacheDir(), INDEX_DIR), packageName);
+        if (packageInfo != null) {
+            IconPackIndex index = IconPackIndex.read(indexFile, packageInfo.getLongVersionCode(),
+                    packageInfo.lastUpdateTime);
+            if (index != null) {
+                return index;
+            }
+        }
         try {
-            InputStream inputStream = null;
             Map<String, String> iconPackResources = new HashMap<String, String>();
+            List<String> iconBacks = new ArrayList<String>();
 
             XmlPullParser appFilter = getAppFilter(context, packageName);
             if (appFilter != null) {
-                loadResourcesFromXmlParser(appFilter, iconPackResources);
-                return iconPackResources;
+                loadResourcesFromXmlParser(appFilter, iconPackResources, iconBacks);
+                IconPackIndex index = IconPackIndex.fromMap(iconPackResources, iconBacks);
+                if (packageInfo != null) {
+                    index.write(indexFile, packageInfo.getLongVersionCode(), packageInfo.lastUpdateTime);
+                }
+                return index;
             }
         } catch (Exception e) {
-            Toast.makeText(context, "Invalid IconPack", Toast.LENGTH_SHORT).show();
+            Log.e(TAG, "Invalid IconPack " + packageName, e);
         }
         return null;
     }
 
     public void unloadIconPack() {
-        mLoadedIconPackResource = null;
-        mLoadedIconPackName = null;
-        mIconPackResources = null;
-        mIconMask = null;
-        mIconBackList.clear();
-        mIconBackStrings.clear();
-        mIconUpon = null;
-        mIconScale = 1f;
+        startLoad(null);
+    }
+
+    /**
+     * true if no load is pending
+     */
+    public synchronized boolean isReady() {
+        return mReadyLatch.getCount() == 0;
+    }
+
+    /**
+     * wait until a pending load is published - must not be called
+     * on the UI thread since the publish happens there
+     * @return true if ready
+     */
+    public boolean awaitReady(long timeoutMs) {
+        final CountDownLatch latch;
+        synchronized (this) {
+            latch = mReadyLatch;
+        }
+        try {
+            return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // UI thread only
+    public void addOnReadyListener(OnIconPackReadyListener listener) {
+        if (!mReadyListeners.contains(listener)) {
+            mReadyListeners.add(listener);
+        }
+    }
+
+    // UI thread only
+    public void removeOnReadyListener(OnIconPackReadyListener listener) {
+        mReadyListeners.remove(listener);
+    }
+
+    /**
+     * changes whenever a pack is published - icons created
+     * with an older generation are stale
+     */
+    public int getPackGeneration() {
+        return mPackGeneration;
     }
 
     public void pickIconPack(final Context context) {
         if (mDialog != null) {
             return;
         }
-        Map<String, IconPackInfo> supportedPackages = getSupportedPackages(context);
+        List<IconPackInfo> supportedPackages = getSupportedPackages(context);
         if (supportedPackages.isEmpty()) {
             Toast.makeText(context, R.string.no_iconpacks_summary, Toast.LENGTH_SHORT).show();
             return;
@@ -338,11 +624,13 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         mDialog = builder.show();
     }
 
-    private View createDialogView(final Context context, Map<String, IconPackInfo> supportedPackages) {
+    private View createDialogView(final Context context, List<IconPackInfo> supportedPackages) {
         final LayoutInflater inflater = (LayoutInflater) context
                 .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         final View view = inflater.inflate(R.layout.dialog_iconpack, null);
-        final IconAdapter adapter = new IconAdapter(context, supportedPackages);
+        final IconAdapter adapter = new IconAdapter(context, supportedPackages,
+                context.getResources().getString(R.string.default_iconpack_title),
+                PreferenceManager.getDefaultSharedPreferences(context).getString(SettingsActivity.PREF_ICONPACK, ""));
 
         mListView = (ListView) view.findViewById(R.id.iconpack_list);
         mListView.setAdapter(adapter);
@@ -370,35 +658,26 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
     }
 
     public boolean isIconPackLoaded() {
-        return mLoadedIconPackResource != null &&
-                mLoadedIconPackName != null &&
-                mIconPackResources != null;
+        return mPack != null;
     }
 
-    private int getResourceIdForDrawable(String resource) {
-        int resId = mLoadedIconPackResource.getIdentifier(resource, "drawable", mLoadedIconPackName);
-        return resId;
+    public Resources getIconPackResources() {
+        IconPack pack = mPack;
+        return pack != null ? pack.getResources() : null;
     }
 
-    public Resources getIconPackResources() {
-        return mLoadedIconPackResource;
+    // package name of the loaded icon pack - null if none
+    public String getLoadedIconPackName() {
+        IconPack pack = mPack;
+        return pack != null ? pack.getPackageName() : null;
     }
 
     public int getResourceIdForActivityIcon(ActivityInfo info) {
-        // TODO since we are loading in background block access until load ready
-        if (!isIconPackLoaded() || mLoading){
+        IconPack pack = mPack;
+        if (pack == null) {
             return 0;
         }
-        String drawable = mIconPackResources.get(info.packageName.toLowerCase()
-                + "." + info.name.toLowerCase());
-        if (drawable == null) {
-            // Icon pack doesn't have an icon for the activity, fallback to package icon
-            drawable = mIconPackResources.get(info.packageName.toLowerCase());
-            if (drawable == null) {
-                return 0;
-            }
-        }
-        return getResourceIdForDrawable(drawable);
+        return pack.getResourceIdForActivityIcon(info);
     }
 
     public int getResourceIdForApp(String pkgName) {
@@ -411,11 +690,14 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
     static class IconPackInfo {
         String packageName;
         CharSequence label;
+        // null until loaded by IconAdapter
         Drawable icon;
+        ResolveInfo resolveInfo;
+        boolean iconLoading;
 
         IconPackInfo(ResolveInfo r, android.content.pm.PackageManager packageManager) {
             packageName = r.activityInfo.packageName;
-            icon = r.loadIcon(packageManager);
+            resolveInfo = r;
             label = r.loadLabel(packageManager);
         }
 
@@ -429,27 +711,30 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         }
     }
 
-    private static class IconAdapter extends BaseAdapter {
+    /**
+     * Lists the icon packs with a "none" entry first. Icons are
+     * loaded in background and kept in the IconPackInfo.
+     */
+    static class IconAdapter extends BaseAdapter {
         ArrayList<IconPackInfo> mSupportedPackages;
         LayoutInflater mLayoutInflater;
         String mCurrentIconPack;
         int mCurrentIconPackPosition = -1;
+        private final android.content.pm.PackageManager mPackageManager;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        // shown until the icon is loaded
+        private final Drawable mPlaceholder = new ColorDrawable(Color.TRANSPARENT);
 
-        IconAdapter(Context ctx, Map<String, IconPackInfo> supportedPackages) {
+        IconAdapter(Context ctx, List<IconPackInfo> supportedPackages, String defaultLabel,
+                String currentIconPack) {
             mLayoutInflater = LayoutInflater.from(ctx);
-            mSupportedPackages = new ArrayList<IconPackInfo>(supportedPackages.values());
-            Collections.sort(mSupportedPackages, new Comparator<IconPackInfo>() {
-                @Override
-                public int compare(IconPackInfo lhs, IconPackInfo rhs) {
-                    return lhs.label.toString().compareToIgnoreCase(rhs.label.toString());
-                }
-            });
-
+            mPackageManager = ctx.getPackageManager();
+            mSupportedPackages = new ArrayList<IconPackInfo>(supportedPackages.size() + 1);
             Resources res = ctx.getResources();
-            String defaultLabel = res.getString(R.string.default_iconpack_title);
             Drawable icon = res.getDrawable(R.drawable.ic_launcher);
-            mSupportedPackages.add(0, new IconPackInfo(defaultLabel, icon, ""));
-            mCurrentIconPack = PreferenceManager.getDefaultSharedPreferences(ctx).getString(SettingsActivity.PREF_ICONPACK, "");
+            mSupportedPackages.add(new IconPackInfo(defaultLabel, icon, ""));
+            mSupportedPackages.addAll(supportedPackages);
+            mCurrentIconPack = currentIconPack;
         }
 
         @Override
@@ -462,6 +747,10 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
             return (String) mSupportedPackages.get(position).packageName;
         }
 
+        IconPackInfo getInfo(int position) {
+            return mSupportedPackages.get(position);
+        }
+
         @Override
         public long getItemId(int position) {
             return 0;
@@ -480,7 +769,12 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
             TextView txtView = (TextView) convertView.findViewById(R.id.title);
             txtView.setText(info.label);
             ImageView imgView = (ImageView) convertView.findViewById(R.id.icon);
-            imgView.setImageDrawable(info.icon);
+            if (info.icon != null) {
+                imgView.setImageDrawable(info.icon);
+            } else {
+                imgView.setImageDrawable(mPlaceholder);
+                loadIcon(info);
+            }
             RadioButton radioButton = (RadioButton) convertView.findViewById(R.id.radio);
             boolean isCurrentIconPack = info.packageName.equals(mCurrentIconPack);
             radioButton.setChecked(isCurrentIconPack);
@@ -489,6 +783,51 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
             }
             return convertView;
         }
+
+        // rebinds all views once the icon is there
+        private void loadIcon(final IconPackInfo info) {
+            if (info.iconLoading) {
+                return;
+            }
+            info.iconLoading = true;
+            LoaderExecutor.getInstance().execute(new LoaderExecutor.Job(LoaderExecutor.LANE_ICONS,
+                    LoaderExecutor.NO_GENERATION) {
+                @Override
+                protected void doInBackground() {
+                    final Drawable icon = info.resolveInfo.loadIcon(mPackageManager);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            info.icon = icon;
+                            info.iconLoading = false;
+                            notifyDataSetChanged();
+                        }
+                    });
+                }
+
+                @Override
+                protected void onCancelled() {
+                    // try again on the next bind
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            info.iconLoading = false;
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        IconPack pack = mPack;
+        pw.println(prefix + "IconPackHelper: pack=" + (pack != null ? pack.getPackageName() : null)
+                + " entries=" + (pack != null ? pack.size() : 0) + " ready=" + isReady());
+        mLookupStats.dump(pw, prefix + "  ", -1);
+    }
+
+    public void clearStats() {
+        mLookupStats.clear();
     }
 
     public void updatePrefs(SharedPreferences prefs, String key) {
@@ -500,21 +839,15 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
             }
 
             mCurrentIconPack = iconPack;
-
-            if (!TextUtils.isEmpty(iconPack) || TextUtils.isEmpty(mCurrentIconPack)){
-                unloadIconPack();
-            }
-            if (!TextUtils.isEmpty(mCurrentIconPack)){
-                loadIconPack();
-            }
-            PackageManager.getInstance(mContext).updatePackageIcons();
+            // icons are updated once the new pack is published
+            startLoad(mCurrentIconPack);
         }
     }
 
     private void init(SharedPreferences prefs) {
         mCurrentIconPack = prefs.getString(SettingsActivity.PREF_ICONPACK, "");
         if (!TextUtils.isEmpty(mCurrentIconPack)){
-            loadIconPack();
+            startLoad(mCurrentIconPack);
         }
     }
 
@@ -526,7 +859,7 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
                 return context.getPackageManager().getXml(packageName, resourceId, null);
             }
         } catch (android.content.pm.PackageManager.NameNotFoundException e) {
-            Toast.makeText(context, "Failed to get AppFilter", Toast.LENGTH_SHORT).show();
+            Log.e(TAG, "Failed to get AppFilter " + packageName);
         }
         return null;
     }
@@ -0,0 +1,279 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * The parsed appfilter.xml of an icon pack. Keys are normalized with
+ * normalize() and sorted so a component can be looked up by binary
+ * search without building a key string. Values are drawable names -
+ * each distinct name has a slot so its resource id only needs to be
+ * resolved once. Stored as a binary file so that loading a pack is a
+ * single read instead of parsing the XML. The file is stamped with the
+ * version of the pack and ignored if it does not match.
+ *
+ * File format - all big endian:
+ * magic, format version, pack version code, pack last update time,
+ * value count, values as modified UTF-8,
+ * entry count, (key as modified UTF-8, value slot) sorted by key,
+ * icon back count, icon backs as modified UTF-8
+ */
+class IconPackIndex {
+    private static final String TAG = "OmniSwitch:IconPackIndex";
+    private static final boolean DEBUG = false;
+    private static final int MAGIC = 0x4f534950; // OSIP
+    private static final int FORMAT_VERSION = 2;
+
+    private final String[] mKeys;
+    // entry -> slot in mValues
+    private final int[] mSlots;
+    private final String[] mValues;
+    private final String[] mIconBacks;
+
+    private IconPackIndex(String[] keys, int[] slots, String[] values, String[] iconBacks) {
+        mKeys = keys;
+        mSlots = slots;
+        mValues = values;
+        mIconBacks = iconBacks;
+    }
+
+    /**
+     * @param resources with keys already normalized
+     */
+    static IconPackIndex fromMap(Map<String, String> resources, List<String> iconBacks) {
+        ArrayList<String> keyList = new ArrayList<String>(resources.size());
+        for (Map.Entry<String, String> entry : resources.entrySet()) {
+            // a null value is the same as no entry
+            if (entry.getValue() != null) {
+                keyList.add(entry.getKey());
+            }
+        }
+        String[] keys = keyList.toArray(new String[keyList.size()]);
+        Arrays.sort(keys);
+        int[] slots = new int[keys.length];
+        HashMap<String, Integer> valueSlots = new HashMap<String, Integer>();
+        ArrayList<String> values = new ArrayList<String>();
+        for (int i = 0; i < keys.length; i++) {
+            final String value = resources.get(keys[i]);
+            Integer slot = valueSlots.get(value);
+            if (slot == null) {
+                slot = values.size();
+                values.add(value);
+                valueSlots.put(value, slot);
+            }
+            slots[i] = slot;
+        }
+        return new IconPackIndex(keys, slots, values.toArray(new String[values.size()]),
+                iconBacks.toArray(new String[iconBacks.size()]));
+    }
+
+    /**
+     * the key for a package or component - lookups and parsing
+     * must both use this
+     */
+    static String normalize(String key) {
+        char[] chars = key.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    static String componentKey(String packageName, String className) {
+        return normalize(packageName + "/" + className);
+    }
+
+    String get(String key) {
+        int index = Arrays.binarySearch(mKeys, key);
+        return index >= 0 ? mValues[mSlots[index]] : null;
+    }
+
+    /**
+     * the entry of a component or with a null className of a
+     * package - negative if none. Does not allocate.
+     */
+    int indexOf(String packageName, String className) {
+        int low = 0;
+        int high = mKeys.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(mKeys[mid], packageName, className);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // compare key with componentKey(packageName, className) or normalize(packageName)
+    private static int compare(String key, String packageName, String className) {
+        final int pkgLength = packageName.length();
+        final int length = className != null ? pkgLength + 1 + className.length() : pkgLength;
+        final int n = Math.min(key.length(), length);
+        for (int i = 0; i < n; i++) {
+            char c;
+            if (i < pkgLength) {
+                c = packageName.charAt(i);
+            } else if (i == pkgLength) {
+                c = '/';
+            } else {
+                c = className.charAt(i - pkgLength - 1);
+            }
+            final int diff = key.charAt(i) - Character.toLowerCase(c);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key.length() - length;
+    }
+
+    int getSlot(int index) {
+        return mSlots[index];
+    }
+
+    int getSlotCount() {
+        return mValues.length;
+    }
+
+    String getSlotValue(int slot) {
+        return mValues[slot];
+    }
+
+    int size() {
+        return mKeys.length;
+    }
+
+    String[] getIconBacks() {
+        return mIconBacks;
+    }
+
+    /**
+     * the stored index of this pack version - null if there
+     * is none or it is stale
+     */
+    static IconPackIndex read(File file, long versionCode, long lastUpdateTime) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            final long start = System.currentTimeMillis();
+            byte[] data;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                data = new byte[(int) raf.length()];
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || in.readLong() != versionCode || in.readLong() != lastUpdateTime) {
+                if (DEBUG) Log.d(TAG, "stale " + file);
+                return null;
+            }
+            String[] values = new String[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readUTF();
+            }
+            int count = in.readInt();
+            String[] keys = new String[count];
+            int[] slots = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = in.readUTF();
+                slots[i] = in.readInt();
+                if (slots[i] < 0 || slots[i] >= values.length) {
+                    throw new IOException("bad slot " + slots[i]);
+                }
+            }
+            String[] iconBacks = new String[in.readInt()];
+            for (int i = 0; i < iconBacks.length; i++) {
+                iconBacks[i] = in.readUTF();
+            }
+            if (DEBUG) Log.d(TAG, "read " + file + " entries = " + count
+                    + " " + (System.currentTimeMillis() - start) + "ms");
+            return new IconPackIndex(keys, slots, values, iconBacks);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "read " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    void write(File file, long versionCode, long lastUpdateTime) {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(versionCode);
+            out.writeLong(lastUpdateTime);
+            out.writeInt(mValues.length);
+            for (String value : mValues) {
+                out.writeUTF(value);
+            }
+            out.writeInt(mKeys.length);
+            for (int i = 0; i < mKeys.length; i++) {
+                out.writeUTF(mKeys[i]);
+                out.writeInt(mSlots[i]);
+            }
+            out.writeInt(mIconBacks.length);
+            for (String iconBack : mIconBacks) {
+                out.writeUTF(iconBack);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "write " + file, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.omnirom.omniswitch.PackageManager;
+import org.omnirom.omniswitch.SwitchConfiguration;
+
+import android.content.res.Resources;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Composes the icons of a list of packages into BitmapCache on a few
+ * background threads, e.g. after the icon pack changed and all icons
+ * were dropped. The workers take the next item of the list so it is
+ * filled in list order. A run stops if a newer one is started, the
+ * icon pack changes again or the hot tier is full - the icons made
+ * last would only evict the first ones.
+ */
+class IconWarmup {
+    private static final String TAG = "OmniSwitch:IconWarmup";
+    private static final boolean DEBUG = false;
+    private static final int MAX_THREADS = 4;
+
+    private final BitmapCache mCache;
+    private final IconPackHelper mIconPackHelper;
+    private final ThreadPoolExecutor mExecutor;
+    private final int mNumThreads;
+    private volatile Run mRun;
+
+    private class Run {
+        final List<PackageManager.PackageItem> items;
+        final Resources resources;
+        final SwitchConfiguration configuration;
+        final int packGeneration;
+        final long startTime = SystemClock.uptimeMillis();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger workers = new AtomicInteger();
+        volatile boolean cancelled;
+
+        Run(List<PackageManager.PackageItem> _items, Resources _resources,
+                SwitchConfiguration _configuration, int _packGeneration) {
+            items = _items;
+            resources = _resources;
+            configuration = _configuration;
+            packGeneration = _packGeneration;
+        }
+
+        boolean isStale() {
+            return cancelled || mRun != this
+                    || packGeneration != mIconPackHelper.getPackGeneration()
+                    || !mIconPackHelper.isReady();
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Run mWorkerRun;
+
+        Worker(Run run) {
+            mWorkerRun = run;
+        }
+
+        @Override
+        public void run() {
+            final Run run = mWorkerRun;
+            final IconCacheKey probe = new IconCacheKey();
+            try {
+                int i;
+                while ((i = run.next.getAndIncrement()) < run.items.size()) {
+                    if (run.isStale() || mCache.isHotTierFull()) {
+                        run.cancelled = true;
+                        break;
+                    }
+                    PackageManager.PackageItem item = run.items.get(i);
+                    IconCacheKey key = probe.set(item.getIntentRaw().getComponent(),
+                            run.configuration.mIconSize).copy();
+                    mCache.loadPackageIcon(key, run.resources, item, run.configuration, true);
+                    run.done.incrementAndGet();
+                }
+            } finally {
+                if (run.workers.decrementAndGet() == 0 && DEBUG) {
+                    Log.d(TAG, "done " + run.done.get() + "/" + run.items.size()
+                            + " cancelled = " + run.cancelled + " "
+                            + (SystemClock.uptimeMillis() - run.startTime) + "ms");
+                }
+            }
+        }
+    }
+
+    IconWarmup(BitmapCache cache, IconPackHelper iconPackHelper) {
+        mCache = cache;
+        mIconPackHelper = iconPackHelper;
+        // leave a core for the UI
+        mNumThreads = Math.max(1, Math.min(MAX_THREADS,
+                Runtime.getRuntime().availableProcessors() - 1));
+        mExecutor = new ThreadPoolExecutor(mNumThreads, mNumThreads,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "OmniSwitchWarmup #" + mCount.incrementAndGet());
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * compose the icons of items in this order - cancels a running warm-up
+     */
+    void start(List<PackageManager.PackageItem> items, Resources resources,
+            SwitchConfiguration configuration) {
+        cancel();
+        if (items.size() == 0 || !mIconPackHelper.isReady()) {
+            return;
+        }
+        Run run = new Run(items, resources, configuration, mIconPackHelper.getPackGeneration());
+        mRun = run;
+        final int workers = Math.min(mNumThreads, items.size());
+        run.workers.set(workers);
+        if (DEBUG) Log.d(TAG, "start " + items.size() + " icons on " + workers + " threads");
+        for (int i = 0; i < workers; i++) {
+            mExecutor.execute(new Worker(run));
+        }
+    }
+
+    void cancel() {
+        Run run = mRun;
+        if (run != null) {
+            run.cancelled = true;
+            mRun = null;
+        }
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        Run run = mRun;
+        if (run == null) {
+            pw.println(prefix + "warmup: none");
+            return;
+        }
+        pw.println(prefix + "warmup: " + run.done.get() + "/" + run.items.size()
+                + (run.cancelled ? " cancelled" : run.workers.get() == 0 ? " done" : " running"));
+    }
+}
@@ -327,7 +327,7 @@ public class SwitchGestureView {
 
                     mRecentsManager.startBoost();
                     mRecentsManager.clearTasks();
-                    RecentTasksLoader.getInstance(mContext).cancelLoadingTasks();
+                    RecentTasksLoader.getInstance(mContext).cancelLoadingTasksUnlessStandby();
                     RecentTasksLoader.getInstance(mContext).setSwitchManager(mRecentsManager);
                     RecentTasksLoader.getInstance(mContext).preloadTasks();
 
@@ -799,6 +799,10 @@ public class SwitchGestureView {
     private void layoutTask(ThumbnailTaskView item){
         mCurrentItemEnv[1] = item;
         updateCurrentItemEnv();
+        RecentTasksLoader.getInstance(mContext).setThumbnailFocus(mCurrentRecentItemIndex);
+        if (item.getTask() != null) {
+            RecentTasksLoader.getInstance(mContext).loadFullThumbnail(item.getTask());
+        }
     }
 
     private void buildFavoriteItems(List<String> favoriteList){
@@ -21,6 +21,7 @@ import java.util.List;
 
 import org.omnirom.omniswitch.PackageManager;
 import org.omnirom.omniswitch.R;
+import org.omnirom.omniswitch.RecentTasksLoader;
 import org.omnirom.omniswitch.SettingsActivity;
 import org.omnirom.omniswitch.SwitchConfiguration;
 import org.omnirom.omniswitch.SwitchManager;
@@ -48,6 +49,7 @@ import android.view.ViewGroup;
 import android.view.ViewOutlineProvider;
 import android.view.ViewTreeObserver;
 import android.view.WindowManager;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemLongClickListener;
@@ -201,7 +203,34 @@ public class SwitchLayoutVertical extends AbstractSwitchLayout {
                 });
 
         mRecentList.setOnTouchListener(touchListener);
-        mRecentList.setOnScrollListener(touchListener.makeScrollListener());
+        final AbsListView.OnScrollListener swipeScrollListener = touchListener.makeScrollListener();
+        mRecentList.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                swipeScrollListener.onScrollStateChanged(view, scrollState);
+                if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE
+                        && view.getChildCount() != 0) {
+                    // sharp preview of the task the list settled on
+                    int position = getTaskPosition(view.getFirstVisiblePosition()
+                            + view.getChildCount() / 2);
+                    List<TaskDescription> tasks = mRecentsManager.getTasks();
+                    if (position >= 0 && position < tasks.size()) {
+                        RecentTasksLoader.getInstance(mContext).loadFullThumbnail(tasks.get(position));
+                    }
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                    int visibleItemCount, int totalItemCount) {
+                swipeScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+                if (visibleItemCount != 0) {
+                    // fetch thumbs of the visible tasks first
+                    RecentTasksLoader.getInstance(mContext).setThumbnailFocus(
+                            getTaskPosition(firstVisibleItem + visibleItemCount / 2));
+                }
+            }
+        });
         mRecentList.setAdapter(mRecentListAdapter);
 
         mFavoriteListView = (FavoriteViewVertical) mView
@@ -50,11 +50,30 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
     private boolean mCanSideHeader;
     private float mThumbRatio = 1.0f;
     private static Bitmap sDefaultThumb;
+    private static final PaintFlagsDrawFilter sDrawFilter = new PaintFlagsDrawFilter(
+            Paint.ANTI_ALIAS_FLAG, Paint.FILTER_BITMAP_FLAG);
     private SwitchConfiguration mConfiguration;
+    private final Rect mSrc = new Rect();
+    private final Rect mDest = new Rect();
+    // the header strip is drawn into mHeader once for the state below
+    private Bitmap mHeader;
+    private final Canvas mHeaderCanvas = new Canvas();
+    private final Paint mHeaderBgPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private TaskDescription mHeaderTask;
+    private Drawable mHeaderIcon;
+    private String mHeaderLabel;
+    private int mHeaderBgColor;
+    private int mHeaderTextColor;
+    private boolean mHeaderShowLabels;
+    private boolean mHeaderSide;
+    private int mHeaderWidth;
+    private int mHeaderHeight;
 
     public ThumbnailTaskView(Context context) {
         super(context);
         mConfiguration = SwitchConfiguration.getInstance(context);
+        mHeaderCanvas.setDrawFilter(sDrawFilter);
+        mHeaderBgPaint.setStyle(Paint.Style.FILL);
     }
 
     public void setIntent(String intent) {
@@ -72,13 +91,16 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
     public void setTask(TaskDescription task, boolean reload) {
         mTask = task;
         mTask.setThumbChangeListener(this);
-        Bitmap thumb = getTask().getThumb();
         Drawable icon = getTask().getIcon();
 
-        if (thumb == null || icon == null || reload) {
+        if (icon == null || reload) {
             RecentTasksLoader.getInstance(getContext()).loadTaskInfo(getTask());
             loadTaskThumb();
             invalidate();
+        } else if (getTask().isThumbStale()) {
+            // icon and label are still valid
+            loadTaskThumb();
+            invalidate();
         } else {
             updateThumb();
         }
@@ -176,81 +198,130 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
         return null;
     }
 
-    private Drawable getIcon() {
+    private Drawable getIcon(int iconSizePx) {
         if (getTask() != null) {
-            Drawable d = getTask().getIcon();
+            Drawable d = getTask().getSizedIcon(iconSizePx);
+            if (d != null) {
+                return d;
+            }
+            d = getTask().getIcon();
             if (d != null) {
-                return BitmapUtils.resize(getContext().getResources(), d,
-                        mConfiguration.mOverlayIconSizeDp, 0, mConfiguration.mDensity);
+                // draw the full icon until the sized one is made
+                RecentTasksLoader.getInstance(getContext()).loadSizedIcon(getTask());
             }
+            return d;
         }
         return null;
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // made again on the next draw
+        mHeader = null;
+        mHeaderTask = null;
+        mHeaderIcon = null;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
-        final int iconSizePx = Math.round(mConfiguration.mOverlayIconSizeDp * mConfiguration.mDensity);
-        final int textInsetPx = Math.round(5 * mConfiguration.mDensity);
         final int width = (int)(mConfiguration.mThumbnailWidth * mThumbRatio);
         final int height = (int)(mConfiguration.mThumbnailHeight * mThumbRatio);
         final boolean sideHeader = mCanSideHeader ? mConfiguration.mSideHeader : false;
         final int iconBorderSizePx = mConfiguration.getOverlayHeaderWidth();
-        Resources resources = getContext().getResources();
 
         canvas.setHwBitmapsInSwModeEnabled(true);
         Bitmap taskThumb = getThumb();
         taskThumb.prepareToDraw();
-        Drawable taskIcon = getIcon();
 
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
-        final Bitmap bmp = Bitmap.createBitmap(sideHeader ? width + iconBorderSizePx : width,
-                sideHeader ? height : height + iconBorderSizePx,
-                Bitmap.Config.ARGB_8888);
+        canvas.setDrawFilter(sDrawFilter);
 
         int bSize = taskThumb.getWidth() > taskThumb.getHeight() ? taskThumb.getHeight() : taskThumb.getWidth();
-        Rect src = new Rect(0, 0, bSize, bSize);
-        Rect dest = new Rect(sideHeader ? iconBorderSizePx : 0, sideHeader ? 0 : iconBorderSizePx,
+        mSrc.set(0, 0, bSize, bSize);
+        mDest.set(sideHeader ? iconBorderSizePx : 0, sideHeader ? 0 : iconBorderSizePx,
                 width + (sideHeader ? iconBorderSizePx : 0), height + (sideHeader ? 0 : iconBorderSizePx));
-        canvas.drawBitmap(taskThumb, src, dest, null);
+        canvas.drawBitmap(taskThumb, mSrc, mDest, null);
+
+        if (getTask() != null) {
+            updateHeader(sideHeader ? iconBorderSizePx : width, sideHeader ? height : iconBorderSizePx,
+                    sideHeader, width, height, iconBorderSizePx);
+            canvas.drawBitmap(mHeader, 0, 0, null);
+        }
+    }
+
+    /**
+     * draw the header strip into mHeader unless it already
+     * shows the current state
+     */
+    private void updateHeader(int headerWidth, int headerHeight, boolean sideHeader,
+            int width, int height, int iconBorderSizePx) {
+        final Resources resources = getContext().getResources();
+        final TaskDescription task = getTask();
+        final int iconSizePx = Math.round(mConfiguration.mOverlayIconSizeDp * mConfiguration.mDensity);
+        final Drawable taskIcon = getIcon(iconSizePx);
+        final String taskLabel = getLabel();
+        final boolean showLabels = mConfiguration.mShowLabels;
 
+        int bgColor;
+        int textColor;
+        if (task.isLocked()) {
+            bgColor = BitmapUtils.getLockedAppsPaint(resources).getColor();
+            textColor = Color.WHITE;
+        } else if (mConfiguration.mColorfulHeader && task.getTaskPrimaryColor() != 0) {
+            bgColor = task.getTaskPrimaryColor();
+            textColor = task.useLightOnPrimaryColor() ? Color.WHITE : Color.BLACK;
+        } else {
+            bgColor = BitmapUtils.getDefaultBgPaint(resources, mConfiguration).getColor();
+            textColor = mConfiguration.getCurrentTextTint(bgColor);
+        }
+        final int alpha = mConfiguration.mBgStyle != SwitchConfiguration.BgStyle.TRANSPARENT
+                ? 255 : (int) (255 * mConfiguration.mBackgroundOpacity);
+        bgColor = (bgColor & 0x00ffffff) | (alpha << 24);
+
+        if (mHeader != null && mHeaderTask == task && mHeaderIcon == taskIcon
+                && TextUtils.equals(mHeaderLabel, taskLabel) && mHeaderBgColor == bgColor
+                && mHeaderTextColor == textColor && mHeaderShowLabels == showLabels
+                && mHeaderSide == sideHeader && mHeaderWidth == headerWidth
+                && mHeaderHeight == headerHeight) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "updateHeader: " + taskLabel);
+        }
+        if (mHeader == null || mHeader.getWidth() != headerWidth
+                || mHeader.getHeight() != headerHeight) {
+            mHeader = Bitmap.createBitmap(headerWidth, headerHeight, Bitmap.Config.ARGB_8888);
+        } else {
+            mHeader.eraseColor(Color.TRANSPARENT);
+        }
+        mHeaderTask = task;
+        mHeaderIcon = taskIcon;
+        mHeaderLabel = taskLabel;
+        mHeaderBgColor = bgColor;
+        mHeaderTextColor = textColor;
+        mHeaderShowLabels = showLabels;
+        mHeaderSide = sideHeader;
+        mHeaderWidth = headerWidth;
+        mHeaderHeight = headerHeight;
+
+        final Canvas canvas = mHeaderCanvas;
+        canvas.setBitmap(mHeader);
+        final int textInsetPx = Math.round(5 * mConfiguration.mDensity);
         final TextPaint textPaint = BitmapUtils.getLabelTextPaint(resources);
         final int startTextPx = iconBorderSizePx + textInsetPx;
         final int textSize = Math.round(14 * mConfiguration.mDensity);
         textPaint.setTextSize(textSize);
+        textPaint.setColor(textColor);
 
-        Paint bgPaint = null;
-        if (getTask().isLocked()) {
-            bgPaint = BitmapUtils.getLockedAppsPaint(resources);
-            textPaint.setColor(Color.WHITE);
-        } else if (mConfiguration.mColorfulHeader && getTask().getTaskPrimaryColor() != 0) {
-            bgPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            bgPaint.setStyle(Paint.Style.FILL);
-            bgPaint.setColor(getTask().getTaskPrimaryColor());
-            textPaint.setColor(getTask().useLightOnPrimaryColor() ? Color.WHITE : Color.BLACK);
-        } else {
-            bgPaint = BitmapUtils.getDefaultBgPaint(resources, mConfiguration);
-            textPaint.setColor(mConfiguration.getCurrentTextTint(bgPaint.getColor()));
-        }
-        if (bgPaint != null) {
-            if (mConfiguration.mBgStyle != SwitchConfiguration.BgStyle.TRANSPARENT) {
-                bgPaint.setAlpha(255);
-            } else {
-                bgPaint.setAlpha((int) (255 * mConfiguration.mBackgroundOpacity));
-            }
-            if (sideHeader)  {
-                canvas.drawRect(0, 0, iconBorderSizePx, height, bgPaint);
-            } else {
-                canvas.drawRect(0, 0, width, iconBorderSizePx, bgPaint);
-            }
-        }
+        mHeaderBgPaint.setColor(bgColor);
+        canvas.drawRect(0, 0, headerWidth, headerHeight, mHeaderBgPaint);
         if (taskIcon != null) {
             final int iconInset = (iconBorderSizePx - iconSizePx) / 2;
             taskIcon.setBounds(iconInset, iconInset, iconSizePx + iconInset, iconSizePx + iconInset);
             taskIcon.draw(canvas);
         }
-        if (getLabel() != null && mConfiguration.mShowLabels) {
-            String label = TextUtils.ellipsize(getLabel(), textPaint, width - startTextPx - textInsetPx, TextUtils.TruncateAt.END).toString();
+        if (taskLabel != null && showLabels) {
+            String label = TextUtils.ellipsize(taskLabel, textPaint, width - startTextPx - textInsetPx, TextUtils.TruncateAt.END).toString();
             if (sideHeader) {
                 canvas.save();
                 int xPos = (int) ((iconBorderSizePx / 2) - ((textPaint.descent() + textPaint.ascent()) / 2)) ; 
@@ -264,5 +335,6 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
                 canvas.drawText(label, xPos, yPos, textPaint);
             }
         }
+        canvas.setBitmap(null);
     }
 }
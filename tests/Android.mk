@@ -0,0 +1,27 @@
+#
+# Copyright (C) 2018 The OmniROM Project
+#
+# This program is free software: you can redistribute it and/or modify
+# it under the terms of the GNU General Public License as published by
+# the Free Software Foundation, either version 2 of the License, or
+# (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU General Public License for more details.
+#
+# You should have received a copy of the GNU General Public License
+# along with this program.  If not, see <http://www.gnu.org/licenses/>.
+#
+
+LOCAL_PATH := $(call my-dir)
+
+# host side unit tests of the framework independent classes
+include $(CLEAR_VARS)
+LOCAL_MODULE := OmniSwitchHostTests
+LOCAL_MODULE_TAGS := tests
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    ../src/org/omnirom/omniswitch/TaskFilterPipeline.java
+LOCAL_STATIC_JAVA_LIBRARIES := junit
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Host side timing of TaskFilterPipeline with all stages of a
+ * RecentTasksLoader load over synthetic task lists. Run with
+ * java -cp OmniSwitchHostTests.jar org.omnirom.omniswitch.TaskFilterPipelineBenchmark
+ * [iterations]
+ */
+public class TaskFilterPipelineBenchmark {
+    private static final int[] TASK_COUNTS = { 50, 200, 1000 };
+    private static final int DEFAULT_ITERATIONS = 20000;
+    private static final long NOW = 10L * 24 * 60 * 60 * 1000;
+    private static final long BOOT_TIME = NOW - 2L * 24 * 60 * 60 * 1000;
+    private static final long FILTER_TIME = 24L * 60 * 60 * 1000;
+
+    // keeps the results alive so the filtering is not optimized away
+    private static int sSink;
+
+    public static void main(String[] args) {
+        final int iterations = args.length != 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        for (int numTasks : TASK_COUNTS) {
+            run(numTasks, iterations);
+        }
+        System.out.println("sink " + sSink);
+    }
+
+    private static void run(int numTasks, int iterations) {
+        final List<TaskFilterPipeline.TaskRecord> tasks = createTasks(numTasks);
+        final TaskFilterPipeline filter = createFilterPipeline();
+
+        // warm up so the timed loop runs compiled code
+        for (int i = 0; i < iterations / 4; i++) {
+            sSink += filter.filter(tasks).size();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sSink += filter.filter(tasks).size();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format(Locale.US,
+                "tasks=%4d accepted=%4d %9.2f us/filter %6.2f ns/task",
+                numTasks, filter.getAcceptedCount(),
+                elapsed / 1000.0 / iterations,
+                (double) elapsed / iterations / numTasks));
+    }
+
+    // the stages RecentTasksLoader uses with all filters enabled
+    private static TaskFilterPipeline createFilterPipeline() {
+        TaskFilterPipeline filter = new TaskFilterPipeline()
+                .addStage(TaskFilterPipeline.excludeComponent("com.android.launcher3",
+                        "com.android.launcher3.Launcher"))
+                .addStage(TaskFilterPipeline.excludeShortComponentContaining(
+                        ".recents.RecentsActivity", "com.android.settings/.FallbackHome"))
+                .addStage(TaskFilterPipeline.activeSince(BOOT_TIME))
+                .addStage(TaskFilterPipeline.activeSince(NOW - FILTER_TIME))
+                .addStage(TaskFilterPipeline.running())
+                .addStage(TaskFilterPipeline.excludeFromRecents());
+        filter.setTopSortLocked(true);
+        return filter;
+    }
+
+    // a fixed seed so runs are comparable
+    private static List<TaskFilterPipeline.TaskRecord> createTasks(int numTasks) {
+        final Random random = new Random(numTasks);
+        final List<TaskFilterPipeline.TaskRecord> tasks =
+                new ArrayList<TaskFilterPipeline.TaskRecord>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            final String packageName;
+            final String className;
+            if (i % 25 == 3) {
+                packageName = "com.android.launcher3";
+                className = "com.android.launcher3.Launcher";
+            } else if (i % 40 == 7) {
+                packageName = "com.android.systemui";
+                className = "com.android.systemui.recents.RecentsActivity";
+            } else {
+                packageName = "com.example.app" + i;
+                className = packageName + ".MainActivity";
+            }
+            // most recent first like the recent tasks list
+            final long lastActiveTime = NOW - (long) i * FILTER_TIME / 20
+                    - random.nextInt(60000);
+            tasks.add(new TaskFilterPipeline.TaskRecord().set(packageName, className,
+                    lastActiveTime, random.nextInt(4) != 0, random.nextInt(10) == 0,
+                    random.nextInt(20) == 0));
+        }
+        return tasks;
+    }
+}
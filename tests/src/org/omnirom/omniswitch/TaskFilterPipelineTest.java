@@ -0,0 +1,246 @@
+/*
+ *  Copyright (C) 2018 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TaskFilterPipelineTest {
+    private static final long NOW = 100000;
+
+    private static TaskFilterPipeline.TaskRecord task(String packageName, String className) {
+        return new TaskFilterPipeline.TaskRecord().set(packageName, className, NOW,
+                true, false, false);
+    }
+
+    private static TaskFilterPipeline.TaskRecord task(String packageName, long lastActiveTime,
+            boolean running, boolean excludeFromRecents, boolean locked) {
+        return new TaskFilterPipeline.TaskRecord().set(packageName, packageName + ".Main",
+                lastActiveTime, running, excludeFromRecents, locked);
+    }
+
+    // accepts everything and records the order it was called in
+    private static class RecordingStage extends TaskFilterPipeline.StatelessStage {
+        private final String mName;
+        private final List<String> mCalls;
+        private final boolean mAccept;
+
+        RecordingStage(String name, List<String> calls, boolean accept) {
+            mName = name;
+            mCalls = calls;
+            mAccept = accept;
+        }
+
+        @Override
+        public boolean accept(TaskFilterPipeline.TaskRecord task) {
+            mCalls.add(mName);
+            return mAccept;
+        }
+    }
+
+    @Test
+    public void stagesRunInAddedOrder() {
+        List<String> calls = new ArrayList<String>();
+        TaskFilterPipeline filter = new TaskFilterPipeline()
+                .addStage(new RecordingStage("a", calls, true))
+                .addStage(new RecordingStage("b", calls, true))
+                .addStage(new RecordingStage("c", calls, true));
+
+        assertTrue(filter.accept(task("com.foo", "com.foo.Main")));
+        assertEquals(Arrays.asList("a", "b", "c"), calls);
+        assertEquals(3, filter.getStages().size());
+    }
+
+    @Test
+    public void firstRejectingStageStopsTheRest() {
+        List<String> calls = new ArrayList<String>();
+        TaskFilterPipeline filter = new TaskFilterPipeline()
+                .addStage(new RecordingStage("a", calls, true))
+                .addStage(new RecordingStage("b", calls, false))
+                .addStage(new RecordingStage("c", calls, true));
+
+        assertFalse(filter.accept(task("com.foo", "com.foo.Main")));
+        assertEquals(Arrays.asList("a", "b"), calls);
+        assertEquals(0, filter.getAcceptedCount());
+    }
+
+    @Test
+    public void emptyPipelineAcceptsAll() {
+        TaskFilterPipeline filter = new TaskFilterPipeline();
+        List<TaskFilterPipeline.TaskRecord> tasks = Arrays.asList(
+                task("com.foo", "com.foo.Main"), task("com.bar", "com.bar.Main"));
+
+        assertEquals(tasks, filter.filter(tasks));
+        assertEquals(2, filter.getAcceptedCount());
+    }
+
+    @Test
+    public void acceptedCountIsReset() {
+        TaskFilterPipeline filter = new TaskFilterPipeline();
+        filter.accept(task("com.foo", "com.foo.Main"));
+        filter.accept(task("com.bar", "com.bar.Main"));
+        assertEquals(2, filter.getAcceptedCount());
+
+        filter.reset();
+        assertEquals(0, filter.getAcceptedCount());
+    }
+
+    @Test
+    public void excludeComponentNeedsPackageAndClass() {
+        TaskFilterPipeline.Stage stage = TaskFilterPipeline.excludeComponent(
+                "com.launcher", "com.launcher.Home");
+
+        assertFalse(stage.accept(task("com.launcher", "com.launcher.Home")));
+        assertTrue(stage.accept(task("com.launcher", "com.launcher.Settings")));
+        assertTrue(stage.accept(task("com.other", "com.launcher.Home")));
+    }
+
+    @Test
+    public void shortComponent() {
+        assertEquals("com.foo/.Main", task("com.foo", "com.foo.Main").getShortComponent());
+        assertEquals("com.foo/com.bar.Main", task("com.foo", "com.bar.Main").getShortComponent());
+        // a package name prefix is not a package
+        assertEquals("com.foo/com.foobar.Main",
+                task("com.foo", "com.foobar.Main").getShortComponent());
+    }
+
+    @Test
+    public void excludeShortComponentContaining() {
+        TaskFilterPipeline.Stage stage = TaskFilterPipeline.excludeShortComponentContaining(
+                ".recents.RecentsActivity", "com.android.settings/.FallbackHome");
+
+        assertFalse(stage.accept(task("com.android.systemui",
+                "com.android.systemui.recents.RecentsActivity")));
+        assertFalse(stage.accept(task("com.android.settings",
+                "com.android.settings.FallbackHome")));
+        assertTrue(stage.accept(task("com.android.settings",
+                "com.android.settings.Settings")));
+    }
+
+    @Test
+    public void activeSinceKeepsLockedTasks() {
+        TaskFilterPipeline.Stage stage = TaskFilterPipeline.activeSince(NOW);
+
+        assertTrue(stage.accept(task("com.foo", NOW, true, false, false)));
+        assertFalse(stage.accept(task("com.foo", NOW - 1, true, false, false)));
+        assertTrue(stage.accept(task("com.foo", NOW - 1, true, false, true)));
+    }
+
+    @Test
+    public void runningKeepsLockedTasks() {
+        TaskFilterPipeline.Stage stage = TaskFilterPipeline.running();
+
+        assertTrue(stage.accept(task("com.foo", NOW, true, false, false)));
+        assertFalse(stage.accept(task("com.foo", NOW, false, false, false)));
+        assertTrue(stage.accept(task("com.foo", NOW, false, false, true)));
+    }
+
+    @Test
+    public void excludeFromRecentsKeepsFirstTask() {
+        TaskFilterPipeline.Stage stage = TaskFilterPipeline.excludeFromRecents();
+
+        assertTrue(stage.accept(task("com.first", NOW, true, true, false)));
+        assertTrue(stage.accept(task("com.second", NOW, true, false, false)));
+        assertFalse(stage.accept(task("com.third", NOW, true, true, false)));
+
+        stage.reset();
+        assertTrue(stage.accept(task("com.first", NOW, true, true, false)));
+    }
+
+    @Test
+    public void excludeFromRecentsFirstTaskIsFirstAcceptedByEarlierStages() {
+        TaskFilterPipeline filter = new TaskFilterPipeline()
+                .addStage(TaskFilterPipeline.running())
+                .addStage(TaskFilterPipeline.excludeFromRecents());
+        TaskFilterPipeline.TaskRecord stopped = task("com.stopped", NOW, false, false, false);
+        TaskFilterPipeline.TaskRecord excluded = task("com.excluded", NOW, true, true, false);
+        TaskFilterPipeline.TaskRecord other = task("com.other", NOW, true, false, false);
+
+        // the stopped task never reaches the last stage
+        assertEquals(Arrays.asList(excluded, other),
+                filter.filter(Arrays.asList(stopped, excluded, other)));
+    }
+
+    @Test
+    public void filterResetsStatefulStages() {
+        TaskFilterPipeline filter = new TaskFilterPipeline()
+                .addStage(TaskFilterPipeline.excludeFromRecents());
+        List<TaskFilterPipeline.TaskRecord> tasks = Arrays.asList(
+                task("com.excluded", NOW, true, true, false),
+                task("com.other", NOW, true, false, false));
+
+        assertEquals(tasks, filter.filter(tasks));
+        // a second load starts over
+        assertEquals(tasks, filter.filter(tasks));
+        assertEquals(2, filter.getAcceptedCount());
+    }
+
+    @Test
+    public void addSortedPutsLockedFirstOnlyIfEnabled() {
+        TaskFilterPipeline filter = new TaskFilterPipeline();
+        TaskFilterPipeline.TaskRecord a = task("com.a", NOW, true, false, false);
+        TaskFilterPipeline.TaskRecord locked = task("com.locked", NOW, true, false, true);
+        TaskFilterPipeline.TaskRecord b = task("com.b", NOW, true, false, false);
+        List<TaskFilterPipeline.TaskRecord> tasks = Arrays.asList(a, locked, b);
+
+        assertEquals(tasks, filter.filter(tasks));
+
+        filter.setTopSortLocked(true);
+        assertEquals(Arrays.asList(locked, a, b), filter.filter(tasks));
+    }
+
+    @Test
+    public void addSortedAddsTheGivenItem() {
+        TaskFilterPipeline filter = new TaskFilterPipeline();
+        filter.setTopSortLocked(true);
+        List<String> shown = new ArrayList<String>();
+
+        filter.addSorted(shown, "a", task("com.a", NOW, true, false, false));
+        filter.addSorted(shown, "locked", task("com.locked", NOW, true, false, true));
+        assertEquals(Arrays.asList("locked", "a"), shown);
+        assertSame("a", shown.get(1));
+    }
+
+    @Test
+    public void fullPipeline() {
+        TaskFilterPipeline filter = new TaskFilterPipeline()
+                .addStage(TaskFilterPipeline.excludeComponent("com.launcher", "com.launcher.Home"))
+                .addStage(TaskFilterPipeline.excludeShortComponentContaining(
+                        ".recents.RecentsActivity"))
+                .addStage(TaskFilterPipeline.activeSince(NOW - 10))
+                .addStage(TaskFilterPipeline.excludeFromRecents());
+        TaskFilterPipeline.TaskRecord home = task("com.launcher", "com.launcher.Home");
+        TaskFilterPipeline.TaskRecord top = task("com.top", NOW, true, true, false);
+        TaskFilterPipeline.TaskRecord old = task("com.old", NOW - 11, true, false, false);
+        TaskFilterPipeline.TaskRecord oldLocked = task("com.oldlocked", NOW - 11, true, false, true);
+        TaskFilterPipeline.TaskRecord hidden = task("com.hidden", NOW, true, true, false);
+        TaskFilterPipeline.TaskRecord recent = task("com.recent", NOW - 10, false, false, false);
+
+        assertEquals(Arrays.asList(top, oldLocked, recent),
+                filter.filter(Arrays.asList(home, top, old, oldLocked, hidden, recent)));
+        assertEquals(3, filter.getAcceptedCount());
+    }
+}